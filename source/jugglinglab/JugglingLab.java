@@ -23,6 +23,7 @@ import jugglinglab.generator.SiteswapGenerator;
 import jugglinglab.generator.SiteswapTransitioner;
 import jugglinglab.generator.GeneratorTarget;
 import jugglinglab.notation.SiteswapPattern;
+import jugglinglab.optimizer.Evolver;
 import jugglinglab.util.*;
 
 
@@ -212,7 +213,8 @@ public class JugglingLab {
             return;
         }
 
-        List<String> modes = Arrays.asList("gen", "trans", "anim", "togif", "tojml");
+        List<String> modes = Arrays.asList("gen", "trans", "merge", "anim", "togif",
+                                            "tojml", "evolve");
         boolean show_help = !modes.contains(firstarg);
 
         if (show_help) {
@@ -287,11 +289,52 @@ public class JugglingLab {
             return;
         }
 
+        if (firstarg.equals("merge")) {
+            // put together the output of a sharded generator run
+            System.setProperty("java.awt.headless", "true");
+            Path[] inpaths = new Path[jlargs.size()];
+            for (int i = 0; i < inpaths.length; i++) {
+                inpaths[i] = Paths.get(jlargs.get(i));
+                if (!inpaths[i].isAbsolute() && JugglingLab.base_dir != null)
+                    inpaths[i] = Paths.get(base_dir.toString(), jlargs.get(i));
+            }
+
+            try {
+                PrintStream ps = System.out;
+                if (outpath != null)
+                    ps = new PrintStream(outpath.toFile());
+                SiteswapGenerator.runMergeCLI(inpaths, ps);
+            } catch (FileNotFoundException fnfe) {
+                System.out.println("Error: problem writing to file path " + outpath.toString());
+            }
+            if (jc != null)
+                System.out.println("Note: animator prefs not used in merge mode; ignored");
+            return;
+        }
+
         // all remaining modes require a pattern as input
         JMLPattern pat = JugglingLab.parse_pattern();
         if (pat == null)
             return;
 
+        if (firstarg.equals("evolve")) {
+            // breed variations of the pattern; remaining arguments are options
+            System.setProperty("java.awt.headless", "true");
+            String[] evolveargs = jlargs.toArray(new String[jlargs.size()]);
+
+            try {
+                PrintStream ps = System.out;
+                if (outpath != null)
+                    ps = new PrintStream(outpath.toFile());
+                Evolver.runEvolverCLI(pat, evolveargs, ps);
+            } catch (FileNotFoundException fnfe) {
+                System.out.println("Error: problem writing to file path " + outpath.toString());
+            }
+            if (jc != null)
+                System.out.println("Note: animator prefs not used in evolve mode; ignored");
+            return;
+        }
+
         if (jlargs.size() > 0) {
             // any remaining arguments that parsing didn't consume?
             System.setProperty("java.awt.headless", "true");
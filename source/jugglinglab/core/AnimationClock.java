@@ -0,0 +1,98 @@
+// AnimationClock.java
+//
+// Copyright 2021 by Jack Boyce (jboyce@gmail.com)
+
+package jugglinglab.core;
+
+import java.awt.Component;
+import java.util.ArrayList;
+
+import jugglinglab.util.*;
+
+
+// Drives a group of AnimationPanels from a single thread.
+//
+// Each AnimationPanel normally runs its own thread, which sleeps and calls
+// repaint() on its own schedule. For a view showing many animations at once
+// (SelectionView) that means many timers and many separate repaints per
+// frame. Instead this class advances all of its panels in lockstep, renders
+// each new frame off the EDT into the panel's back buffer, and then makes a
+// single repaint request covering all of them.
+
+public class AnimationClock implements Runnable {
+    // longest we'll sleep, so paused panels are noticed when they restart
+    protected static final long MAX_SLEEP_MILLIS = 50L;
+
+    protected ArrayList<AnimationPanel> panels = new ArrayList<AnimationPanel>();
+    protected Component target;     // repainted once per frame
+    protected Thread engine;
+
+
+    // `target` should be a container holding all of the panels
+    public AnimationClock(Component target) {
+        this.target = target;
+    }
+
+    public synchronized void addPanel(AnimationPanel ap) {
+        panels.add(ap);
+        ap.setClock(this);
+    }
+
+    // Start the clock thread, if it isn't already running
+    public synchronized void start() {
+        if (engine != null && engine.isAlive())
+            return;
+        engine = new Thread(this, "AnimationClock");
+        engine.setDaemon(true);
+        engine.start();
+    }
+
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            t = engine;
+            engine = null;
+        }
+        if (t == null)
+            return;
+        try {
+            t.interrupt();
+            t.join();
+        } catch (InterruptedException ie) {
+        }
+    }
+
+    @Override
+    public void run() {
+        Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+
+        AnimationPanel[] ap;
+        synchronized (this) {
+            ap = panels.toArray(new AnimationPanel[panels.size()]);
+        }
+
+        try {
+            while (!Thread.interrupted()) {
+                long now = System.currentTimeMillis();
+                boolean newframe = false;
+
+                for (int i = 0; i < ap.length; i++) {
+                    if (ap[i].clockTick(now))
+                        newframe = true;
+                }
+                if (newframe)
+                    target.repaint();
+
+                long wait = MAX_SLEEP_MILLIS;
+                now = System.currentTimeMillis();
+                for (int i = 0; i < ap.length; i++)
+                    wait = Math.min(wait, ap[i].getMillisToNextFrame(now));
+                if (wait > 0)
+                    Thread.sleep(wait);
+            }
+        } catch (InterruptedException ie) {
+        } catch (JuggleExceptionInternal jei) {
+            ErrorDialog.handleFatalException(jei);
+        }
+    }
+}
@@ -111,6 +111,7 @@ public class AnimationEditPanel extends AnimationPanel {
                         deltalc.x = -deltalc.x;
                     Coordinate orig = master.getLocalCoordinate();
                     master.setLocalCoordinate(Coordinate.add(orig, deltalc));
+                    anim.pat.setEventPositionChanged(master);
                     xdelta = ydelta = 0;
 
                     EditLadderDiagram eld = (EditLadderDiagram)ladder;
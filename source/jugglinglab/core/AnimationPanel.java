@@ -6,15 +6,18 @@ package jugglinglab.core;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
 import java.io.*;
 import java.net.URL;
 import java.util.ResourceBundle;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.Clip;
 import javax.sound.sampled.DataLine;
 import javax.swing.JPanel;
-import javax.swing.SwingUtilities;
 
 import jugglinglab.jml.*;
 import jugglinglab.renderer.Renderer2D;
@@ -39,6 +42,14 @@ public class AnimationPanel extends JPanel implements Runnable {
 
     protected Clip              catchclip;
     protected Clip              bounceclip;
+    protected Runnable          catchplayer;
+    protected Runnable          bounceplayer;
+    protected int               catchcursor;    // into pattern's catch times
+    protected int               bouncecursor;
+
+    // clips are started on a single shared thread, off the animation and
+    // event dispatch threads
+    protected static ExecutorService audioexecutor;
 
     protected boolean           waspaused = false;      // for pause on mouse away
     protected boolean           outside = true;
@@ -50,6 +61,17 @@ public class AnimationPanel extends JPanel implements Runnable {
 
     protected Dimension         prefsize;
 
+    // when driven by a shared AnimationClock, frames are rendered on the
+    // clock's thread into `backbuffer` and swapped to `frontbuffer` for display
+    protected AnimationClock    clock;
+    protected BufferedImage     frontbuffer;
+    protected BufferedImage     backbuffer;
+    protected boolean           framepending;
+    protected long              nextframemillis;
+
+    protected long              framecount;
+    protected double            avgframemillis;     // recent average render time
+
 
     public AnimationPanel() {
         this.anim = new Animator();
@@ -63,6 +85,12 @@ public class AnimationPanel extends JPanel implements Runnable {
         prefsize = d;
     }
 
+    // Use a shared clock instead of this panel's own animation thread. Call
+    // before restartJuggle().
+    public void setClock(AnimationClock clock) {
+        this.clock = clock;
+    }
+
     // override methods in java.awt.Component
     @Override
     public Dimension getPreferredSize() {
@@ -97,6 +125,55 @@ public class AnimationPanel extends JPanel implements Runnable {
             // System.out.println("Error loading bounce.au: " + e.getMessage());
             this.bounceclip = null;
         }
+        if (catchclip != null)
+            catchplayer = makeClipPlayer(catchclip);
+        if (bounceclip != null)
+            bounceplayer = makeClipPlayer(bounceclip);
+    }
+
+    protected static Runnable makeClipPlayer(final Clip clip) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                if (clip.isActive())
+                    clip.stop();
+                clip.setFramePosition(0);
+                clip.start();
+            }
+        };
+    }
+
+    protected static synchronized void playClip(Runnable player) {
+        if (audioexecutor == null) {
+            audioexecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Audio");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        audioexecutor.execute(player);
+    }
+
+    // Play a sound if any of the sorted `times` fall in [time1, time2).
+    // The search starts at `cursor` since the animation usually moves forward
+    // by a small step; returns the index of the first time >= time2.
+    protected static int playSounds(double[] times, int cursor, double time1,
+                                    double time2, Runnable player) {
+        if (times == null)
+            return 0;
+        if (cursor > times.length || (cursor > 0 && times[cursor - 1] >= time1))
+            cursor = 0;     // time moved backward, or pattern was laid out again
+        while (cursor < times.length && times[cursor] < time1)
+            cursor++;
+        if (cursor < times.length && times[cursor] < time2) {
+            playClip(player);
+            while (cursor < times.length && times[cursor] < time2)
+                cursor++;
+        }
+        return cursor;
     }
 
     protected void initHandlers() {
@@ -133,12 +210,11 @@ public class AnimationPanel extends JPanel implements Runnable {
                     return;
                 AnimationPanel.this.cameradrag = false;
 
-                if (!engineAnimating && engine != null && engine.isAlive()) {
+                if (!engineAnimating && isEngineAlive()) {
                     setPaused(!enginePaused);
                     return;
                 }
-                if (me.getX() == startx && me.getY() == starty &&
-                                engine != null && engine.isAlive()) {
+                if (me.getX() == startx && me.getY() == starty && isEngineAlive()) {
                     setPaused(!enginePaused);
                     AnimationPanel.this.getParent().dispatchEvent(me);
                 }
@@ -215,7 +291,9 @@ public class AnimationPanel extends JPanel implements Runnable {
                     return;
                 if (writingGIF)
                     return;
-                anim.setDimension(AnimationPanel.this.getSize());
+                synchronized (anim) {
+                    anim.setDimension(AnimationPanel.this.getSize());
+                }
                 repaint();
             }
         });
@@ -264,11 +342,19 @@ public class AnimationPanel extends JPanel implements Runnable {
         if (newjc != null)
             this.jc = newjc;
 
-        anim.setDimension(this.getSize());
-        anim.restartAnimator(pat, newjc);
+        synchronized (anim) {
+            anim.setDimension(this.getSize());
+            anim.restartAnimator(pat, newjc);
+        }
 
         this.setBackground(anim.getBackground());
 
+        if (clock != null) {
+            startClockAnimation();
+            clock.start();
+            return;
+        }
+
         engine = new Thread(this);
         engine.start();
     }
@@ -299,94 +385,182 @@ public class AnimationPanel extends JPanel implements Runnable {
                 }
             }
 
-            message = null;
+            startAnimating();
 
             long real_time_start = System.currentTimeMillis();
             long real_time_wait;
-            double oldtime, newtime;
-
-            if (jc.mousePause) {
-                if (outside_valid)
-                    setPaused(outside);
-                else
-                    setPaused(true);    // assume mouse is outside animator, if not known
-                waspaused = false;
-            }
-
-            engineAnimating = true;
 
             while (true)  {
-                setTime(anim.pat.getLoopStartTime());
-
-                for (int i = 0; getTime() < (anim.pat.getLoopEndTime() -
-                                    0.5 * anim.sim_interval_secs); i++) {
-                    repaint();
-                    real_time_wait = anim.real_interval_millis -
-                                (System.currentTimeMillis() - real_time_start);
-
-                    if (real_time_wait > 0)
-                        Thread.sleep(real_time_wait);
-                    else if (engine == null || engine.interrupted())
-                        throw new InterruptedException();
+                repaint();
+                real_time_wait = anim.real_interval_millis -
+                            (System.currentTimeMillis() - real_time_start);
 
-                    real_time_start = System.currentTimeMillis();
+                if (real_time_wait > 0)
+                    Thread.sleep(real_time_wait);
+                else if (engine == null || engine.interrupted())
+                    throw new InterruptedException();
 
-                    while (enginePaused) {
-                        synchronized (this) {
-                            wait();
-                        }
-                    }
+                real_time_start = System.currentTimeMillis();
 
-                    oldtime = getTime();
-                    setTime(getTime() + anim.sim_interval_secs);
-                    newtime = getTime();
-
-                    if (jc.catchSound && catchclip != null) {
-                        // use synchronized here to prevent editing actions in
-                        // EditLadderDiagram from creating data consistency problems
-                        synchronized (anim.pat) {
-                            for (int path = 1; path <= anim.pat.getNumberOfPaths(); path++) {
-                                if (anim.pat.getPathCatchVolume(path, oldtime, newtime) > 0.0) {
-                                    // do audio playback on the EDT -- not strictly
-                                    // necessary but it seems to work better on Linux
-                                    SwingUtilities.invokeLater(new Runnable() {
-                                        @Override
-                                        public void run() {
-                                            if (catchclip.isActive())
-                                                catchclip.stop();
-                                            catchclip.setFramePosition(0);
-                                            catchclip.start();
-                                        }
-                                    });
-                                }
-                            }
-                        }
-                    }
-                    if (jc.bounceSound && bounceclip != null) {
-                        synchronized (anim.pat) {
-                            for (int path = 1; path <= anim.pat.getNumberOfPaths(); path++) {
-                                if (anim.pat.getPathBounceVolume(path, oldtime, newtime) > 0.0) {
-                                    SwingUtilities.invokeLater(new Runnable() {
-                                        @Override
-                                        public void run() {
-                                            if (bounceclip.isActive())
-                                                bounceclip.stop();
-                                            bounceclip.setFramePosition(0);
-                                            bounceclip.start();
-                                        }
-                                    });
-                                }
-                            }
-                        }
+                while (enginePaused) {
+                    synchronized (this) {
+                        wait();
                     }
                 }
-                anim.advanceProps();
+
+                advanceFrame();
             }
         } catch (InterruptedException ie) {
             return;
         }
     }
 
+    // Called once any startPause is over, to begin the animation proper.
+    protected void startAnimating() {
+        message = null;
+
+        if (jc.mousePause) {
+            if (outside_valid)
+                setPaused(outside);
+            else
+                setPaused(true);    // assume mouse is outside animator, if not known
+            waspaused = false;
+        }
+
+        setTime(anim.pat.getLoopStartTime());
+        engineAnimating = true;
+    }
+
+    // Move the animation forward by one frame, playing any catch and bounce
+    // sounds along the way.
+    protected void advanceFrame() {
+        double oldtime = getTime();
+        setTime(getTime() + anim.sim_interval_secs);
+        double newtime = getTime();
+
+        boolean loopdone = (newtime >= (anim.pat.getLoopEndTime() -
+                                        0.5 * anim.sim_interval_secs));
+
+        // on the last frame of the loop, include everything up to the loop end
+        double soundtime = (loopdone ? Double.POSITIVE_INFINITY : newtime);
+
+        if (jc.catchSound && catchplayer != null)
+            catchcursor = playSounds(anim.pat.getCatchTimes(), catchcursor,
+                                     oldtime, soundtime, catchplayer);
+        if (jc.bounceSound && bounceplayer != null)
+            bouncecursor = playSounds(anim.pat.getBounceTimes(), bouncecursor,
+                                      oldtime, soundtime, bounceplayer);
+
+        if (loopdone) {
+            anim.advanceProps();
+            setTime(anim.pat.getLoopStartTime());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    //   Animation driven by a shared AnimationClock
+    // ------------------------------------------------------------------------
+
+    // Equivalent of the start of run(), without a thread of our own
+    protected void startClockAnimation() {
+        engineAnimating = false;
+        if (jc.mousePause)
+            waspaused = jc.startPause;
+
+        synchronized (this) {
+            framepending = false;
+        }
+        nextframemillis = 0L;
+        engineRunning = true;
+
+        if (jc.startPause) {
+            message = guistrings.getString("Message_click_to_start");
+            enginePaused = true;    // clock starts us when unpaused
+            repaint();
+        } else
+            startAnimating();
+    }
+
+    // Called by the clock on its thread. If this panel is due for a new frame,
+    // advance the animation and render it into the back buffer. Returns true
+    // if a new frame is ready to be shown.
+    protected boolean clockTick(long now) throws JuggleExceptionInternal {
+        synchronized (anim) {
+            if (!engineRunning || writingGIF)
+                return false;
+            if (!engineAnimating) {
+                if (enginePaused)
+                    return false;   // waiting for click to start
+                startAnimating();
+                nextframemillis = now;
+            } else {
+                if (enginePaused || now < nextframemillis)
+                    return false;
+                advanceFrame();
+            }
+
+            // keep to our own frame rate, which depends on the pattern
+            nextframemillis += anim.real_interval_millis;
+            if (nextframemillis <= now)
+                nextframemillis = now + anim.real_interval_millis;
+
+            return renderFrame();
+        }
+    }
+
+    protected boolean renderFrame() throws JuggleExceptionInternal {
+        Dimension d = anim.getDimension();
+        if (d.width <= 0 || d.height <= 0)
+            return false;
+        if (backbuffer == null || backbuffer.getWidth() != d.width ||
+                        backbuffer.getHeight() != d.height)
+            backbuffer = new BufferedImage(d.width, d.height, BufferedImage.TYPE_INT_RGB);
+
+        long start = System.nanoTime();
+        Graphics g = backbuffer.getGraphics();
+        g.setColor(getBackground());
+        g.fillRect(0, 0, d.width, d.height);
+        anim.drawFrame(getTime(), g, this.cameradrag);
+        g.dispose();
+        recordFrameTime(System.nanoTime() - start);
+
+        synchronized (this) {
+            BufferedImage temp = frontbuffer;
+            frontbuffer = backbuffer;
+            backbuffer = temp;
+            framepending = true;
+        }
+        return true;
+    }
+
+    // Return the clock's time until this panel next needs a frame
+    protected long getMillisToNextFrame(long now) {
+        if (!engineAnimating || enginePaused)
+            return Long.MAX_VALUE;
+        return Math.max(nextframemillis - now, 0L);
+    }
+
+    protected void recordFrameTime(long nanos) {
+        double millis = (double)nanos / 1.0e6;
+        if (framecount == 0)
+            avgframemillis = millis;
+        else
+            avgframemillis = 0.9 * avgframemillis + 0.1 * millis;
+        framecount++;
+    }
+
+    // Number of frames rendered, and the recent average time to render one
+    public long getFrameCount()             { return framecount; }
+    public double getFrameTimeMillis()      { return avgframemillis; }
+
+    // ------------------------------------------------------------------------
+
+    protected boolean isEngineAlive() {
+        if (clock != null)
+            return engineRunning;
+        return (engine != null && engine.isAlive());
+    }
+
     // stop the current animation thread, if one is running
     protected void killAnimationThread() {
         try {
@@ -397,11 +571,13 @@ public class AnimationPanel extends JPanel implements Runnable {
         } catch (InterruptedException ie) {
             return;
         } finally {
-            engine = null;
-            engineRunning = false;
-            enginePaused = false;
-            engineAnimating = false;
-            message = null;
+            synchronized (anim) {
+                engine = null;
+                engineRunning = false;
+                enginePaused = false;
+                engineAnimating = false;
+                message = null;
+            }
         }
     }
 
@@ -417,15 +593,34 @@ public class AnimationPanel extends JPanel implements Runnable {
     public void setTime(double time)        { sim_time = time; }
 
     public double[] getCameraAngle()        { return anim.getCameraAngle(); }
-    public void setCameraAngle(double[] ca) { anim.setCameraAngle(ca); }
+
+    public void setCameraAngle(double[] ca) {
+        synchronized (anim) {
+            anim.setCameraAngle(ca);
+        }
+    }
 
     @Override
     public void paintComponent(Graphics g) {
         if (message != null)
             drawString(message, g);
         else if (engineRunning && !writingGIF) {
+            // show the clock's latest frame if there is one; otherwise (e.g.
+            // running on our own thread, or a repaint after a camera drag)
+            // draw directly
+            synchronized (this) {
+                if (framepending) {
+                    g.drawImage(frontbuffer, 0, 0, null);
+                    framepending = false;
+                    return;
+                }
+            }
             try {
-                anim.drawFrame(getTime(), g, this.cameradrag);
+                synchronized (anim) {
+                    long start = System.nanoTime();
+                    anim.drawFrame(getTime(), g, this.cameradrag);
+                    recordFrameTime(System.nanoTime() - start);
+                }
             } catch (JuggleExceptionInternal jei) {
                 killAnimationThread();
                 System.out.println(jei.getMessage());
@@ -37,8 +37,14 @@ public class Animator {
     protected int               num_frames;
     protected double            sim_interval_secs;
     protected long              real_interval_millis;
-    protected int[]             animpropnum;
-    protected Permutation       invpathperm;
+    protected int[]             animpropnum;    // prop assignments for current phase
+    protected int               propphase;      // cycles through the pattern, mod period
+    protected int               propperiod;
+    protected int[]             proptable;      // assignments for all phases, or null
+    protected Permutation       pathperm;
+
+    // largest prop assignment table we'll build, in entries
+    protected static final int MAX_PROPTABLE_SIZE = 1 << 20;
 
     // camera angles for viewing
     protected double[]          camangle;       // in radians
@@ -224,13 +230,46 @@ public class Animator {
     // to maintain continuity. After pat.getPeriod() times through this the props
     // will return to their original assignments.
     public void advanceProps() {
-        int paths = this.pat.getNumberOfPaths();
-        int[] temppropnum = new int[paths];
+        setPropPhase(propphase + 1);
+    }
+
+    // Set prop assignments for the given number of cycles through the pattern
+    // since the start. With this any frame of the animation can be drawn
+    // independently of the others.
+    public void setPropPhase(int phase) {
+        this.propphase = Math.floorMod(phase, propperiod);
+        int paths = animpropnum.length;
+
+        if (proptable != null)
+            System.arraycopy(proptable, propphase * paths, animpropnum, 0, paths);
+        else {
+            // After k cycles the prop on path i is the one that started on
+            // path pathperm^k(i)
+            for (int i = 0; i < paths; i++)
+                animpropnum[i] = pat.getPropAssignment(pathperm.getMapping(i + 1, propphase));
+        }
+    }
 
-        for (int i = 0; i < paths; i++)
-            temppropnum[this.invpathperm.getMapping(i + 1) - 1] = this.animpropnum[i];
-        for (int i = 0; i < paths; i++)
-            this.animpropnum[i] = temppropnum[i];
+    public int getPropPhase()   { return propphase; }
+
+    // Build the table of prop assignments for each phase 0..period-1, stored
+    // one phase after another in a single array
+    protected void buildPropTable() {
+        int paths = pat.getNumberOfPaths();
+        this.pathperm = pat.getPathPermutation();
+        this.propperiod = Math.max(1, pat.getPeriod());
+        this.animpropnum = new int[paths];
+        this.proptable = null;
+
+        if ((long)propperiod * paths <= MAX_PROPTABLE_SIZE) {
+            proptable = new int[propperiod * paths];
+            for (int k = 0; k < propperiod; k++) {
+                for (int i = 0; i < paths; i++)
+                    proptable[k * paths + i] =
+                            pat.getPropAssignment(pathperm.getMapping(i + 1, k));
+            }
+        }
+        setPropPhase(0);
     }
 
     // Rescales the animator so that the pattern and key parts of the juggler
@@ -246,10 +285,7 @@ public class Animator {
         this.sim_interval_secs = (pat.getLoopEndTime() - pat.getLoopStartTime()) / num_frames;
         this.real_interval_millis = (long)(1000.0 * sim_interval_secs * jc.slowdown);
 
-        this.animpropnum = new int[pat.getNumberOfPaths()];
-        for (int i = 0; i < pat.getNumberOfPaths(); i++)
-            this.animpropnum[i] = pat.getPropAssignment(i + 1);
-        this.invpathperm = pat.getPathPermutation().getInverse();
+        buildPropTable();
     }
 
     // Find the overall bounding box of the juggler and pattern, in real-space
@@ -367,12 +403,9 @@ public class Animator {
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
                            RenderingHints.VALUE_ANTIALIAS_OFF);
 
-        // reset prop assignments so we'll generate an identical GIF every time
-        for (int i = 0; i < pat.getNumberOfPaths(); i++)
-            this.animpropnum[i] = pat.getPropAssignment(i + 1);
-
         int totalframes = pat.getPeriod() * this.num_frames;
         int framecount = 0;
+        int savedphase = propphase;
 
         // delay time is embedded in GIF header in terms of hundredths of a second
         String delayTime = String.valueOf((int)(0.5 + this.real_interval_millis / 10));
@@ -383,6 +416,10 @@ public class Animator {
         for (int i = 0; i < pat.getPeriod(); i++)  {
             double time = pat.getLoopStartTime();
 
+            // start from the original prop assignments so we'll generate an
+            // identical GIF every time
+            setPropPhase(i);
+
             for (int j = 0; j < this.num_frames; j++) {
                 this.drawFrame(time, g, false);
 
@@ -402,15 +439,15 @@ public class Animator {
                 if (wgm != null) {
                     wgm.update(framecount, totalframes);
                     if (wgm.isCanceled()) {
+                        setPropPhase(savedphase);
                         ios.close();
                         os.close();
                         return;
                     }
                 }
             }
-
-            this.advanceProps();
         }
+        setPropPhase(savedphase);
 
         g.dispose();
         iw.endWriteSequence();
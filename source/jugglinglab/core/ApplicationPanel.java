@@ -288,11 +288,24 @@ public class ApplicationPanel extends JPanel implements ActionListener {
                 Thread t = new Thread() {
                     @Override
                     public void run() {
+                        gen_busy.setText(guistrings.getString("Processing"));
                         gen_busy.setVisible(true);
                         gen_button.setEnabled(false);
                         PatternListWindow pw = null;
                         try {
                             gen.initGenerator();
+                            gen.setProgressListener(new GeneratorProgress.Listener() {
+                                @Override
+                                public void progressUpdate(GeneratorProgress progress) {
+                                    final String text = progress.toString();
+                                    SwingUtilities.invokeLater(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            gen_busy.setText(text);
+                                        }
+                                    });
+                                }
+                            });
                             GeneratorTarget pwot = null;
                             if (pl != null) {
                                 pl.clearList();
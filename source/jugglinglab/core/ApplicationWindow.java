@@ -251,12 +251,16 @@ public class ApplicationWindow extends JFrame implements ActionListener {
 
         try {
             try {
-                JMLParser parser = new JMLParser();
-                parser.parse(new FileReader(jmlf));
+                int filetype = JMLParser.JML_INVALID;
+                try (Reader read = new FileReader(jmlf)) {
+                    filetype = JMLStreamLoader.getFileType(read);
+                }
 
-                switch (parser.getFileType()) {
+                switch (filetype) {
                     case JMLParser.JML_PATTERN:
                     {
+                        JMLParser parser = new JMLParser();
+                        parser.parse(new FileReader(jmlf));
                         JMLNode root = parser.getTree();
                         JMLPattern pat = new JMLPattern(root);
                         frame = new PatternWindow(pat.getTitle(), pat, new AnimationPrefs());
@@ -264,9 +268,10 @@ public class ApplicationWindow extends JFrame implements ActionListener {
                     }
                     case JMLParser.JML_LIST:
                     {
-                        JMLNode root = parser.getTree();
-                        pw = new PatternListWindow(root);
-                        PatternList pl = pw.getPatternList();
+                        // pattern lists can be large, so stream them in
+                        try (Reader read = new BufferedReader(new FileReader(jmlf))) {
+                            pw = new PatternListWindow(read);
+                        }
                         break;
                     }
                     default:
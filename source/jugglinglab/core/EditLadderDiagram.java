@@ -278,11 +278,13 @@ public class EditLadderDiagram extends LadderDiagram implements ActionListener {
                         if (delta_y > delta_y_max)
                                 delta_y = delta_y_max;
                         if (delta_y != old_delta_y)
-                            EditLadderDiagram.this.repaint();
+                            repaintActiveEvent(old_delta_y, delta_y);
                             break;
                     case STATE_MOVING_TRACKER:
+                        int old_tracker_y = tracker_y;
                         tracker_y = my;
-                        EditLadderDiagram.this.repaint();
+                        repaintTracker(old_tracker_y);
+                        repaintTracker(tracker_y);
                         if (animator != null) {
                             double scale = (fpat.getLoopEndTime() - fpat.getLoopStartTime()) /
                                     (double)(height - 2*border_top);
@@ -299,6 +301,19 @@ public class EditLadderDiagram extends LadderDiagram implements ActionListener {
     }
 
 
+    // repaint only the strip of the diagram swept out by the active event as
+    // it is dragged from one offset to another
+    protected void repaintActiveEvent(int old_delta_y, int new_delta_y) {
+        if (active_eventitem == null) {
+            repaint();
+            return;
+        }
+        // allow for the box drawn around the selected event
+        int ymin = active_eventitem.ylow + Math.min(old_delta_y, new_delta_y) - 2;
+        int ymax = active_eventitem.yhigh + Math.max(old_delta_y, new_delta_y) + 2;
+        repaint(0, ymin, width, ymax - ymin + 1);
+    }
+
     protected void findEventLimits(LadderEventItem item) {
         double tmin = pat.getLoopStartTime();
         double tmax = pat.getLoopEndTime();
@@ -1569,6 +1584,8 @@ public class EditLadderDiagram extends LadderDiagram implements ActionListener {
         // Could probably get this permutation from the pattern instead of the animator.
         int[] animpropnum = animator.anim.getAnimPropNum();
 
+        Rectangle clip = gr.getClipBounds();
+
         // draw events
         gr.setColor(Color.black);
         for (int i = 0; i < laddereventitems.size(); i++) {
@@ -1576,6 +1593,9 @@ public class EditLadderDiagram extends LadderDiagram implements ActionListener {
 
             int yoffset = ((gui_state == STATE_MOVING_EVENT) &&
                            (active_eventitem.eventitem == item.eventitem)) ? delta_y : 0;
+            if (clip != null && (item.yhigh + yoffset < clip.y ||
+                                 item.ylow + yoffset > clip.y + clip.height))
+                continue;
             if (item.type == LadderItem.TYPE_EVENT)
                 gr.fillOval(item.xlow, item.ylow + yoffset,
                             (item.xhigh-item.xlow), (item.yhigh-item.ylow));
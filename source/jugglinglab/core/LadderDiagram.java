@@ -25,6 +25,7 @@ public class LadderDiagram extends JPanel {
     static final protected double selfthrow_width = 0.25;
     static final protected int path_slop = 5;
     static final protected int cacheframes = 5;
+    static final protected int tile_height = 64;
 
     static final protected double passing_border_sides = 0.2;
 
@@ -41,8 +42,17 @@ public class LadderDiagram extends JPanel {
 
     protected ArrayList<LadderEventItem> laddereventitems;
     protected ArrayList<LadderPathItem> ladderpathitems;
-    protected Image laddercache;
-    protected boolean laddercachedirty;
+    protected LadderItemIndex<LadderEventItem> eventindex;
+    protected LadderItemIndex<LadderPathItem> pathindex;
+    protected ArrayList<LadderItem> hits = new ArrayList<LadderItem>();
+
+    // The static part of the ladder (hand lines and paths) is cached in a
+    // stack of horizontal tiles, each `tile_height` pixels tall. For each tile
+    // we keep a signature of what was drawn into it, and a tile is only redrawn
+    // when the signature of the items currently overlapping it changes.
+    protected Image[] tiles;
+    protected long[] tilesig;       // signature of current contents of each tile
+    protected long[] bandsig;       // signature the tile should have
     protected int cacheframesleft;
 
     protected boolean anim_paused;
@@ -56,8 +66,9 @@ public class LadderDiagram extends JPanel {
     }
 
     protected LadderEventItem getSelectedLadderEvent(int x, int y) {
-        for (int i = 0; i < laddereventitems.size(); i++) {
-            LadderEventItem item = laddereventitems.get(i);
+        eventindex.query(y, y, hits);
+        for (int i = 0; i < hits.size(); i++) {
+            LadderEventItem item = (LadderEventItem)hits.get(i);
             if (x >= item.xlow && x <= item.xhigh &&
                 y >= item.ylow && y <= item.yhigh)
                 return item;
@@ -72,10 +83,15 @@ public class LadderDiagram extends JPanel {
         if (y < (border_top - slop) || y > (height - border_top + slop))
             return null;
 
-        for (int i = 0; i < ladderpathitems.size(); i++) {
-            LadderPathItem item = ladderpathitems.get(i);
+        pathindex.query(y - slop, y + slop, hits);
+        for (int i = 0; i < hits.size(); i++) {
+            LadderPathItem item = (LadderPathItem)hits.get(i);
             double d;
 
+            // bounding box test first
+            if (x < (item.xlow - slop) || x > (item.xhigh + slop))
+                continue;
+
             if (item.type == LadderPathItem.TYPE_SELF) {
                 if (y < (item.ystart - slop) || y > (item.yend + slop))
                     continue;
@@ -84,11 +100,6 @@ public class LadderDiagram extends JPanel {
                 d = Math.abs(Math.sqrt(d) - item.radius);
             }
             else {
-                int xmin = (item.xstart < item.xend) ? item.xstart : item.xend;
-                int xmax = (item.xstart < item.xend) ? item.xend : item.xstart;
-
-                if (x < (xmin - slop) || x > (xmax + slop))
-                    continue;
                 if (y < (item.ystart - slop) || y > (item.yend + slop))
                     continue;
                 d = (item.xend - item.xstart)*(y - item.ystart) -
@@ -113,6 +124,7 @@ public class LadderDiagram extends JPanel {
             if (item.pathnum == path)
                 item.color = color;
         }
+        calcBandSignatures();
     }
 
     public void setTime(double time) {
@@ -120,8 +132,17 @@ public class LadderDiagram extends JPanel {
             return;
 
         this.sim_time = time;
+        int old_tracker_y = tracker_y;
         setTrackerPosition();
-        repaint();
+        if (tracker_y != old_tracker_y) {
+            repaintTracker(old_tracker_y);
+            repaintTracker(tracker_y);
+        }
+    }
+
+    // repaint only the strip of the diagram around a tracker line position
+    protected void repaintTracker(int y) {
+        repaint(0, y - 1, width, 3);
     }
 
     protected void setTrackerPosition() {
@@ -212,6 +233,12 @@ public class LadderDiagram extends JPanel {
 
     protected void updateView() {
         Dimension dim = this.getSize();
+        if (tiles == null || dim.width != width || dim.height != height) {
+            int ntiles = (dim.height + tile_height - 1) / tile_height;
+            this.tiles = new Image[ntiles];
+            this.tilesig = new long[ntiles];
+            this.cacheframesleft = cacheframes;
+        }
         this.width = dim.width;
         this.height = dim.height;
         this.left_x = (int)((double)width/2.0 * border_sides);
@@ -221,10 +248,6 @@ public class LadderDiagram extends JPanel {
             this.passing_offset_x = (int)((double)(width - 2 * passing_first_x) / (double)(pat.getNumberOfJugglers() - 1));
         }
 
-        this.laddercachedirty = true;
-        this.laddercache = null;
-        this.cacheframesleft = cacheframes;
-
         double loop_start = pat.getLoopStartTime();
         double loop_end = pat.getLoopEndTime();
 
@@ -297,96 +320,192 @@ public class LadderDiagram extends JPanel {
                 item.ycenter = (int)(0.5 + yc);
                 item.radius = (int)(0.5 + rad);
             }
+
+            // bounding box of the drawn path
+            if (item.type == LadderPathItem.TYPE_SELF) {
+                item.xlow = Math.max(item.xcenter - item.radius, left_x);
+                item.xhigh = Math.min(item.xcenter + item.radius, right_x);
+            } else {
+                item.xlow = Math.min(item.xstart, item.xend);
+                item.xhigh = Math.max(item.xstart, item.xend);
+            }
+            item.ylow = Math.min(item.ystart, item.yend);
+            item.yhigh = Math.max(item.ystart, item.yend);
         }
 
+        eventindex = new LadderItemIndex<LadderEventItem>(laddereventitems);
+        pathindex = new LadderItemIndex<LadderPathItem>(ladderpathitems);
+
+        calcBandSignatures();
+
         // update position of tracker bar
         setTrackerPosition();
     }
 
+    // Find the signature of the items drawn into each tile. Paths contribute
+    // to every tile they overlap; anything that affects the whole diagram goes
+    // into the base value shared by all tiles.
+    protected void calcBandSignatures() {
+        long base = mixSignature(width);
+        base = mixSignature(base + height);
+        base = mixSignature(base + pat.getNumberOfJugglers());
+        base = mixSignature(base + (has_switch_symmetry ? 1 : 0) +
+                            (has_switchdelay_symmetry ? 2 : 0));
+
+        bandsig = new long[tiles.length];
+        Arrays.fill(bandsig, base);
+
+        if (pat.getNumberOfJugglers() != 1)
+            return;
+
+        for (int i = 0; i < ladderpathitems.size(); i++) {
+            LadderPathItem item = ladderpathitems.get(i);
+
+            long h = mixSignature(item.type);
+            h = mixSignature(h + item.xstart);
+            h = mixSignature(h + item.ystart);
+            h = mixSignature(h + item.xend);
+            h = mixSignature(h + item.yend);
+            if (item.type == LadderPathItem.TYPE_SELF) {
+                h = mixSignature(h + item.xcenter);
+                h = mixSignature(h + item.ycenter);
+                h = mixSignature(h + item.radius);
+            }
+            h = mixSignature(h + item.color.getRGB());
+
+            // allow a margin for antialiasing
+            int first = Math.max(0, (item.ylow - 2) / tile_height);
+            int last = Math.min(tiles.length - 1, (item.yhigh + 2) / tile_height);
+            // summing makes the signature independent of item order
+            for (int j = first; j <= last; j++)
+                bandsig[j] += h;
+        }
+    }
+
+    protected static long mixSignature(long x) {
+        x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+        x = (x ^ (x >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return x ^ (x >>> 33);
+    }
+
     protected void paintBackground(Graphics gr) {
         // check if ladder was resized
         Dimension dim = this.getSize();
         if (dim.width != width || dim.height != height)
             updateView();
 
-        if (laddercachedirty) {
-            Graphics g = gr;
+        // don't build tiles until the size settles down
+        if (cacheframesleft > 0) {
+            cacheframesleft--;
+            drawLadder(gr);
+            return;
+        }
 
-            if (cacheframesleft == 0) {
-                laddercache = this.createImage(width, height);
-                g = laddercache.getGraphics();
+        Rectangle clip = gr.getClipBounds();
+        int first = 0, last = tiles.length - 1;
+        if (clip != null) {
+            first = Math.max(first, clip.y / tile_height);
+            last = Math.min(last, (clip.y + clip.height - 1) / tile_height);
+        }
 
-                if (g instanceof Graphics2D) {
-                    Graphics2D g2 = (Graphics2D)g;
-                    g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        for (int i = first; i <= last; i++) {
+            if (tiles[i] == null || tilesig[i] != bandsig[i]) {
+                if (!drawTile(i)) {
+                    drawLadder(gr);
+                    return;
                 }
+            }
+            gr.drawImage(tiles[i], 0, i * tile_height, this);
+        }
+    }
 
-                laddercachedirty = false;
+    // Redraw the contents of a single tile. Returns false if the tile image
+    // couldn't be created.
+    protected boolean drawTile(int tilenum) {
+        if (tiles[tilenum] == null) {
+            tiles[tilenum] = this.createImage(width, tile_height);
+            if (tiles[tilenum] == null)
+                return false;
+        }
+
+        Graphics g = tiles[tilenum].getGraphics();
+        if (g instanceof Graphics2D) {
+            Graphics2D g2 = (Graphics2D)g;
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        }
+        g.translate(0, -tilenum * tile_height);
+        g.clipRect(0, tilenum * tile_height, width, tile_height);
+        drawLadder(g);
+        g.dispose();
+
+        tilesig[tilenum] = bandsig[tilenum];
+        return true;
+    }
+
+    // Draw the static part of the ladder, within the clip region of `g`
+    protected void drawLadder(Graphics g) {
+        Rectangle bounds = g.getClipBounds();
+        int ymin = (bounds == null ? 0 : bounds.y);
+        int ymax = (bounds == null ? height : bounds.y + bounds.height);
+
+        // first erase the background
+        g.setColor(this.getBackground());
+        g.fillRect(0, 0, width, height);
+
+        if (pat.getNumberOfJugglers() == 1) {
+            // draw the lines signifying symmetries
+            g.setColor(Color.lightGray);
+            g.drawLine(0, border_top, width, border_top);
+            g.drawLine(0, height-border_top, width, height-border_top);
+            if (has_switch_symmetry) {
+                g.drawLine(left_x, height-border_top/2, right_x, height-border_top/2);
+                g.drawLine(left_x, height-border_top/2, left_x+left_x, height-border_top*3/4);
+                g.drawLine(left_x, height-border_top/2, left_x+left_x, height-border_top/4);
+                g.drawLine(right_x, height-border_top/2, right_x-left_x, height-border_top*3/4);
+                g.drawLine(right_x, height-border_top/2, right_x-left_x, height-border_top/4);
             }
-            else {
-                cacheframesleft--;
+            if (has_switchdelay_symmetry)
+                g.drawLine(0, height/2, width, height/2);
+
+            // draw the lines representing the hands
+            g.setColor(Color.black);
+            for (int i = -1; i < 2; i++) {
+                g.drawLine(left_x+i, border_top, left_x+i, height-border_top);
+                g.drawLine(right_x+i, border_top, right_x+i, height-border_top);
             }
 
-            // first erase the background
-            g.setColor(this.getBackground());
-            g.fillRect(0, 0, width, height);
-
-            if (pat.getNumberOfJugglers() == 1) {
-                // draw the lines signifying symmetries
-                g.setColor(Color.lightGray);
-                g.drawLine(0, border_top, width, border_top);
-                g.drawLine(0, height-border_top, width, height-border_top);
-                if (has_switch_symmetry) {
-                    g.drawLine(left_x, height-border_top/2, right_x, height-border_top/2);
-                    g.drawLine(left_x, height-border_top/2, left_x+left_x, height-border_top*3/4);
-                    g.drawLine(left_x, height-border_top/2, left_x+left_x, height-border_top/4);
-                    g.drawLine(right_x, height-border_top/2, right_x-left_x, height-border_top*3/4);
-                    g.drawLine(right_x, height-border_top/2, right_x-left_x, height-border_top/4);
-                }
-                if (has_switchdelay_symmetry)
-                    g.drawLine(0, height/2, width, height/2);
-
-                // draw the lines representing the hands
-                g.setColor(Color.black);
-                for (int i = -1; i < 2; i++) {
-                    g.drawLine(left_x+i, border_top, left_x+i, height-border_top);
-                    g.drawLine(right_x+i, border_top, right_x+i, height-border_top);
-                }
+            // draw paths
+            Shape clip = g.getClip();
+            for (int i = 0; i < ladderpathitems.size(); i++) {
+                LadderPathItem item = ladderpathitems.get(i);
+                if (item.yhigh + 2 < ymin || item.ylow - 2 > ymax)
+                    continue;
 
-                // draw paths
-                Shape clip = g.getClip();
-                for (int i = 0; i < ladderpathitems.size(); i++) {
-                    LadderPathItem item = ladderpathitems.get(i);
-
-                    g.setColor(item.color);
-                    g.clipRect(left_x, border_top, (right_x-left_x), height-2*border_top);
-                    if (item.type == LadderPathItem.TYPE_CROSS)
-                        g.drawLine(item.xstart, item.ystart, item.xend, item.yend);
-                    else if (item.type == LadderPathItem.TYPE_HOLD)
-                        g.drawLine(item.xstart, item.ystart, item.xend, item.yend);
-                    else {
-                        if (!(item.yend < border_top)) {
-                            g.clipRect(left_x, item.ystart, (right_x-left_x), (item.yend-item.ystart));
-                            g.drawOval(item.xcenter-item.radius, item.ycenter-item.radius,
-                                       2*item.radius, 2*item.radius);
-                        }
+                g.setColor(item.color);
+                g.clipRect(left_x, border_top, (right_x-left_x), height-2*border_top);
+                if (item.type == LadderPathItem.TYPE_CROSS)
+                    g.drawLine(item.xstart, item.ystart, item.xend, item.yend);
+                else if (item.type == LadderPathItem.TYPE_HOLD)
+                    g.drawLine(item.xstart, item.ystart, item.xend, item.yend);
+                else {
+                    if (!(item.yend < border_top)) {
+                        g.clipRect(left_x, item.ystart, (right_x-left_x), (item.yend-item.ystart));
+                        g.drawOval(item.xcenter-item.radius, item.ycenter-item.radius,
+                                   2*item.radius, 2*item.radius);
                     }
-                    g.setClip(clip);
                 }
-            } else {
-                // draw the lines representing the jugglers
-                g.setColor(Color.black);
-                for (int j = 0; j < pat.getNumberOfJugglers(); j++) {
-                    for (int i = -1; i < 2; i++) {
-                        int px = passing_first_x + j * passing_offset_x;
-                        g.drawLine(px+i, border_top, px+i, height-border_top);
-                    }
+                g.setClip(clip);
+            }
+        } else {
+            // draw the lines representing the jugglers
+            g.setColor(Color.black);
+            for (int j = 0; j < pat.getNumberOfJugglers(); j++) {
+                for (int i = -1; i < 2; i++) {
+                    int px = passing_first_x + j * passing_offset_x;
+                    g.drawLine(px+i, border_top, px+i, height-border_top);
                 }
             }
         }
-
-        if (!laddercachedirty)
-            gr.drawImage(laddercache, 0, 0, this);
     }
 
     @Override
@@ -399,10 +518,14 @@ public class LadderDiagram extends JPanel {
 
         paintBackground(gr);
 
+        Rectangle clip = gr.getClipBounds();
+
         // draw events
         gr.setColor(Color.black);
         for (int i = 0; i < laddereventitems.size(); i++) {
             LadderEventItem item = laddereventitems.get(i);
+            if (clip != null && (item.yhigh < clip.y || item.ylow > clip.y + clip.height))
+                continue;
 
             if (item.type == LadderItem.TYPE_EVENT)
                 gr.fillOval(item.xlow, item.ylow,
@@ -432,11 +555,10 @@ class LadderItem {
     static final public int TYPE_HOLD = 5;
 
     public int type;
+    public int xlow, xhigh, ylow, yhigh;    // bounding box
 }
 
 class LadderEventItem extends LadderItem {
-    public int xlow, xhigh, ylow, yhigh;
-
     public LadderEventItem eventitem = null;
 
     public JMLEvent event = null;
@@ -454,3 +576,65 @@ class LadderPathItem extends LadderItem {
     public int transnum_start = 0;
     public int pathnum;
 }
+
+
+// Interval tree over the vertical extents of a list of ladder items, so that
+// mouse hit testing only needs to look at items near the cursor.
+//
+// The items are sorted by `ylow` and the sorted array is treated as an
+// implicitly balanced binary tree: the root of the range [lo, hi) is at the
+// midpoint, and each node stores the largest `yhigh` in its subtree.
+
+class LadderItemIndex<T extends LadderItem> {
+    protected LadderItem[] items;
+    protected int[] maxhigh;
+
+
+    public LadderItemIndex(ArrayList<T> list) {
+        items = list.toArray(new LadderItem[list.size()]);
+        // stable sort keeps items with equal `ylow` in list order
+        Arrays.sort(items, new Comparator<LadderItem>() {
+            @Override
+            public int compare(LadderItem a, LadderItem b) {
+                return Integer.compare(a.ylow, b.ylow);
+            }
+        });
+        maxhigh = new int[items.length];
+        buildMax(0, items.length);
+    }
+
+    protected int buildMax(int lo, int hi) {
+        if (lo >= hi)
+            return Integer.MIN_VALUE;
+        int mid = (lo + hi) >>> 1;
+        int max = Math.max(items[mid].yhigh,
+                           Math.max(buildMax(lo, mid), buildMax(mid + 1, hi)));
+        maxhigh[mid] = max;
+        return max;
+    }
+
+    // Fill `result` with the items whose vertical extent overlaps [ymin, ymax],
+    // in order of increasing `ylow`.
+    public void query(int ymin, int ymax, ArrayList<LadderItem> result) {
+        result.clear();
+        query(0, items.length, ymin, ymax, result);
+    }
+
+    protected void query(int lo, int hi, int ymin, int ymax, ArrayList<LadderItem> result) {
+        if (lo >= hi)
+            return;
+        int mid = (lo + hi) >>> 1;
+        if (maxhigh[mid] < ymin)
+            return;     // nothing in this subtree reaches down to ymin
+
+        query(lo, mid, ymin, ymax, result);
+
+        // items to the right start no earlier than this one
+        if (items[mid].ylow > ymax)
+            return;
+        if (items[mid].yhigh >= ymin)
+            result.add(items[mid]);
+
+        query(mid + 1, hi, ymin, ymax, result);
+    }
+}
@@ -29,7 +29,10 @@ public class PatternList extends JPanel {
     View animtarget;
     String title;
     JList<PatternRecord> list;
-    DefaultListModel<PatternRecord> model;
+    PatternListModel model;
+
+    // lines queued by addPatternLater()
+    ArrayList<String[]> pending = new ArrayList<String[]>();
 
 
     public PatternList() {
@@ -44,10 +47,11 @@ public class PatternList extends JPanel {
     }
 
     protected void makePanel() {
-        model = new DefaultListModel<PatternRecord>();
+        model = new PatternListModel();
         list = new JList<PatternRecord>(model);
         list.getSelectionModel().setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         list.setCellRenderer(new PatternCellRenderer());
+        model.updatePrototype();
 
         list.setDragEnabled(true);
 
@@ -59,7 +63,7 @@ public class PatternList extends JPanel {
 
             @Override
             public Transferable createTransferable(JComponent c) {
-                PatternRecord rec = model.get(list.getSelectedIndex());
+                PatternRecord rec = model.getElementAt(list.getSelectedIndex());
                 String s;
                 if (rec.anim == null || rec.anim.equals(""))
                     s = rec.display;
@@ -76,12 +80,14 @@ public class PatternList extends JPanel {
                 PatternWindow jaw2 = null;
                 try {
                     //if (lse.getValueIsAdjusting()) {
-                        PatternRecord rec = model.get(list.getSelectedIndex());
+                        if (list.getSelectedIndex() < 0)
+                            return;
+                        PatternRecord rec = model.getElementAt(list.getSelectedIndex());
 
                         JMLPattern pat = null;
 
-                        if (rec.notation != null && rec.notation.equalsIgnoreCase("JML") && rec.pattern != null) {
-                            pat = new JMLPattern(rec.pattern, PatternList.this.loadingversion);
+                        if (rec.notation != null && rec.notation.equalsIgnoreCase("JML") && rec.hasJMLPattern()) {
+                            pat = new JMLPattern(rec.getPatternNode(), PatternList.this.loadingversion);
                         } else if (rec.notation != null && rec.anim != null) {
                             Pattern p = Pattern.newPattern(rec.notation);
                             pat = p.fromString(rec.anim).asJMLPattern();
@@ -127,6 +133,14 @@ public class PatternList extends JPanel {
     }
 
     public void addPattern(String display, String animprefs, String notation, String anim, JMLNode pat) {
+        addLine(display, animprefs, notation, anim, pat);
+        model.update();
+    }
+
+    // Adds a line to the list model without notifying the JList; call
+    // model.update() when done. `pat` is either a JMLNode, or a byte[] from
+    // JMLStreamLoader holding a pattern that hasn't been parsed yet.
+    protected void addLine(String display, String animprefs, String notation, String anim, Object pat) {
         // display = display.trim();
         if (notation != null)
             notation = notation.trim();
@@ -135,13 +149,62 @@ public class PatternList extends JPanel {
         if (anim != null)
             anim = anim.trim();
 
-        PatternRecord rec = new PatternRecord(display, animprefs, notation, anim, pat);
+        model.add(display, animprefs, notation, anim, pat);
+    }
+
+    // Thread-safe version of addPattern() for generator output. The line is
+    // added on the event dispatch thread, and lines that arrive close together
+    // are added to the list as a batch.
+    public void addPatternLater(String display, String animprefs, String notation, String anim) {
+        boolean schedule = false;
+
+        synchronized (pending) {
+            schedule = pending.isEmpty();
+            pending.add(new String[] { display, animprefs, notation, anim });
+        }
 
-        model.addElement(rec);
+        if (schedule) {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    ArrayList<String[]> lines = null;
+                    synchronized (pending) {
+                        lines = new ArrayList<String[]>(pending);
+                        pending.clear();
+                    }
+                    for (String[] line : lines)
+                        model.add(line[0], line[1], line[2], line[3], null);
+                    model.update();
+                }
+            });
+        }
     }
 
+    // Empties the list. This is called from the generator threads, so the
+    // list is cleared on the event dispatch thread, along with any lines from
+    // addPatternLater() that haven't been added yet.
     public void clearList() {
-        model.clear();
+        Runnable clear = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (pending) {
+                    pending.clear();
+                    model.clear();
+                }
+            }
+        };
+
+        if (SwingUtilities.isEventDispatchThread()) {
+            clear.run();
+            return;
+        }
+        try {
+            SwingUtilities.invokeAndWait(clear);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();  // the generator will stop
+        } catch (java.lang.reflect.InvocationTargetException ite) {
+            ErrorDialog.handleFatalException(ite);
+        }
     }
 
     public void setTitle(String t) {
@@ -203,10 +266,30 @@ public class PatternList extends JPanel {
                     }
                 }
 
-                addPattern(display, animprefs, notation, anim, pattern);
+                addLine(display, animprefs, notation, anim, pattern);
             } else
                 throw new JuggleExceptionUser(errorstrings.getString("Error_illegal_tag"));
         }
+        model.update();
+    }
+
+    // Reads a pattern list from a JML file, without building a JMLNode tree
+    // for the whole file.
+    public void readJML(Reader read) throws JuggleExceptionUser {
+        loadingversion = JMLStreamLoader.readPatternList(read,
+                    new JMLStreamLoader.PatternListTarget() {
+            @Override
+            public void setTitle(String t) {
+                title = t;
+            }
+
+            @Override
+            public void addLine(String display, String animprefs, String notation,
+                                String anim, byte[] patternjml) {
+                PatternList.this.addLine(display, animprefs, notation, anim, patternjml);
+            }
+        });
+        model.update();
     }
 
     public void writeJML(Writer wr) throws IOException {
@@ -220,21 +303,31 @@ public class PatternList extends JPanel {
         write.println("<patternlist>");
         write.println("<title>" + JMLNode.xmlescape(this.title) + "</title>");
 
-        for (int i = 0; i < model.size(); i++) {
-            PatternRecord rec = model.get(i);
-            String line = "<line display=\"" + JMLNode.xmlescape(rec.display) + "\"";
-
-            if (rec.notation != null)
-                line += " notation=\"" + JMLNode.xmlescape(rec.notation.toLowerCase()) + "\"";
-            if (rec.animprefs != null)
-                line += " animprefs=\"" + JMLNode.xmlescape(rec.animprefs) + "\"";
-            line += ">";
-            write.println(line);
-
-            if ((rec.notation != null) && rec.notation.equalsIgnoreCase("JML") && rec.pattern != null) {
-                rec.pattern.writeNode(write, 0);
-            } else if (rec.anim != null) {
-                write.println(JMLNode.xmlescape(rec.anim));
+        // write straight from the store, to avoid creating PatternRecords
+        PatternStore store = model.getStore();
+
+        for (int i = 0; i < store.size(); i++) {
+            String notation = store.getNotation(i);
+            String animprefs = store.getAnimPrefs(i);
+
+            write.print("<line display=\"");
+            store.writeDisplay(i, write, true);
+            write.print("\"");
+            if (notation != null)
+                write.print(" notation=\"" + JMLNode.xmlescape(notation.toLowerCase()) + "\"");
+            if (animprefs != null)
+                write.print(" animprefs=\"" + JMLNode.xmlescape(animprefs) + "\"");
+            write.println(">");
+
+            if ((notation != null) && notation.equalsIgnoreCase("JML") && store.getPattern(i) != null) {
+                try {
+                    model.getElementAt(i).getPatternNode().writeNode(write, 0);
+                } catch (JuggleExceptionUser jeu) {
+                    throw new IOException(jeu.getMessage());
+                }
+            } else if (store.getAnim(i) != null) {
+                store.writeAnim(i, write, true);
+                write.println();
             }
 
             write.println("</line>");
@@ -250,9 +343,11 @@ public class PatternList extends JPanel {
     public void writeText(Writer wr) throws IOException {
         PrintWriter write = new PrintWriter(wr);
 
-        for (int i = 0; i < model.size(); i++) {
-            PatternRecord rec = model.get(i);
-            write.println(rec.display);
+        PatternStore store = model.getStore();
+
+        for (int i = 0; i < store.size(); i++) {
+            store.writeDisplay(i, write, false);
+            write.println();
         }
         write.flush();
         //write.close();
@@ -265,6 +360,7 @@ public class PatternList extends JPanel {
         public String notation;
         public String anim;
         public JMLNode pattern;  // if the pattern is in JML notation
+        public byte[] patternjml;   // or in text form, from JMLStreamLoader
 
         public PatternRecord(String dis, String ap, String not, String ani, JMLNode pat) {
             display = dis;
@@ -273,6 +369,86 @@ public class PatternList extends JPanel {
             anim = ani;
             pattern = pat;
         }
+
+        public boolean hasJMLPattern() {
+            return (pattern != null || patternjml != null);
+        }
+
+        // JML patterns in text form are parsed each time, rather than keeping
+        // the node trees around
+        public JMLNode getPatternNode() throws JuggleExceptionUser {
+            if (pattern != null)
+                return pattern;
+            if (patternjml != null)
+                return JMLStreamLoader.parsePattern(patternjml, loadingversion);
+            return null;
+        }
+    }
+
+
+    // List model that creates PatternRecords on demand from a PatternStore, so
+    // that very long lists don't need an object per line.
+    class PatternListModel extends AbstractListModel<PatternRecord> {
+        private static final long serialVersionUID = 1L;
+
+        PatternStore store = new PatternStore();
+        int listsize;   // number of lines the JList has been told about
+        int prototypelength = -1;
+
+        @Override
+        public int getSize() {
+            return listsize;
+        }
+
+        @Override
+        public PatternRecord getElementAt(int index) {
+            Object pat = store.getPattern(index);
+            PatternRecord rec = new PatternRecord(store.getDisplay(index),
+                        store.getAnimPrefs(index), store.getNotation(index),
+                        store.getAnim(index), (pat instanceof JMLNode ? (JMLNode)pat : null));
+            if (pat instanceof byte[])
+                rec.patternjml = (byte[])pat;
+            return rec;
+        }
+
+        public PatternStore getStore()  { return store; }
+
+        public void add(String display, String animprefs, String notation, String anim, Object pat) {
+            store.add(display, animprefs, notation, anim, pat);
+        }
+
+        // Notify the JList of the lines added since the last update
+        public void update() {
+            int size = store.size();
+            if (size > listsize) {
+                int first = listsize;
+                listsize = size;
+                fireIntervalAdded(this, first, size - 1);
+            }
+            updatePrototype();
+        }
+
+        public void clear() {
+            int oldsize = listsize;
+            store.clear();
+            listsize = 0;
+            if (oldsize > 0)
+                fireIntervalRemoved(this, 0, oldsize - 1);
+        }
+
+        // Giving the JList a prototype cell means it doesn't have to measure
+        // every line to size itself. The longest line is used, since the
+        // patterns are shown in a monospaced font.
+        public void updatePrototype() {
+            int length = Math.max(1, store.getMaxDisplayLength());
+            if (length <= prototypelength)
+                return;
+            prototypelength = length;
+
+            char[] proto = new char[length];
+            Arrays.fill(proto, 'm');
+            list.setPrototypeCellValue(new PatternRecord(new String(proto), null, null, "", null));
+        }
     }
 
 
@@ -286,7 +462,7 @@ public class PatternList extends JPanel {
         {
             PatternRecord rec = value;
 
-            setFont((rec.anim == null && rec.pattern == null) ? font_nopattern : font_pattern);
+            setFont((rec.anim == null && !rec.hasJMLPattern()) ? font_nopattern : font_pattern);
             setText(rec.display);
 
             if (isSelected) {
@@ -64,6 +64,21 @@ public class PatternListWindow extends JFrame implements ActionListener {
         setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
     }
 
+    // Reads a pattern list from a JML file, using the streaming loader
+    public PatternListWindow(Reader read) throws JuggleExceptionUser {
+        super();
+        makeWindow();
+        pl.readJML(read);
+        if (pl.getTitle() != null)
+            title = pl.getTitle();
+        else
+            title = guistrings.getString("Patterns");
+
+        setTitle(title);
+
+        setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+    }
+
     protected void makeWindow() {
         pl = new PatternList(null);
 
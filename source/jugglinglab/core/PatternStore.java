@@ -0,0 +1,238 @@
+// PatternStore.java
+//
+// Copyright 2021 by Jack Boyce (jboyce@gmail.com)
+
+package jugglinglab.core;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import jugglinglab.jml.JMLNode;
+
+
+// Compact storage for the lines in a PatternList.
+//
+// A generator run can produce millions of patterns, so rather than keeping a
+// PatternRecord object (and its Strings) for each line, we keep the display
+// and animation strings as UTF-8 bytes in large shared chunks, indexed by
+// offset arrays. Notation and animprefs strings are shared through a table
+// since there are only ever a few distinct values. Strings are decoded on
+// demand when a line is displayed or selected.
+
+class PatternStore {
+    protected static final int CHUNK_SIZE = 1 << 20;
+
+    protected static final int ANIM_NULL = -1;
+    protected static final int ANIM_SAME = -2;      // anim same as display
+
+    protected ArrayList<byte[]> chunks = new ArrayList<byte[]>();
+    protected int chunkfill;    // bytes used in last chunk
+
+    protected int size;
+    protected long[] displaypos;    // chunk index in high word, offset in low
+    protected int[] displaylen;
+    protected long[] animpos;
+    protected int[] animlen;        // or ANIM_NULL or ANIM_SAME
+    protected int[] notationindex;  // into `strings`, or -1 if null
+    protected int[] animprefsindex;
+
+    protected ArrayList<String> strings = new ArrayList<String>();
+    protected HashMap<String, Integer> stringindex = new HashMap<String, Integer>();
+
+    // JML patterns are rare in generated lists, so keep those sparsely. Each
+    // is either a JMLNode or a byte[] from JMLStreamLoader.
+    protected HashMap<Integer, Object> jml = new HashMap<Integer, Object>();
+
+    protected int maxdisplaylength;
+    protected char[] charbuf = new char[256];
+
+
+    public PatternStore() {
+        clear();
+    }
+
+    public int size()   { return size; }
+
+    public void clear() {
+        chunks.clear();
+        chunkfill = CHUNK_SIZE;
+        size = 0;
+        displaypos = new long[16];
+        displaylen = new int[16];
+        animpos = new long[16];
+        animlen = new int[16];
+        notationindex = new int[16];
+        animprefsindex = new int[16];
+        strings.clear();
+        stringindex.clear();
+        jml.clear();
+        maxdisplaylength = 0;
+    }
+
+    public void add(String display, String animprefs, String notation, String anim,
+                    Object pattern) {
+        if (size == displaypos.length) {
+            int newlength = 2 * size;
+            displaypos = Arrays.copyOf(displaypos, newlength);
+            displaylen = Arrays.copyOf(displaylen, newlength);
+            animpos = Arrays.copyOf(animpos, newlength);
+            animlen = Arrays.copyOf(animlen, newlength);
+            notationindex = Arrays.copyOf(notationindex, newlength);
+            animprefsindex = Arrays.copyOf(animprefsindex, newlength);
+        }
+
+        byte[] b = display.getBytes(StandardCharsets.UTF_8);
+        displaypos[size] = storeBytes(b);
+        displaylen[size] = b.length;
+        maxdisplaylength = Math.max(maxdisplaylength, display.length());
+
+        if (anim == null)
+            animlen[size] = ANIM_NULL;
+        else if (anim.equals(display))
+            animlen[size] = ANIM_SAME;
+        else {
+            b = anim.getBytes(StandardCharsets.UTF_8);
+            animpos[size] = storeBytes(b);
+            animlen[size] = b.length;
+        }
+
+        notationindex[size] = indexOfString(notation);
+        animprefsindex[size] = indexOfString(animprefs);
+        if (pattern != null)
+            jml.put(size, pattern);
+        size++;
+    }
+
+    public String getDisplay(int index) {
+        return decode(displaypos[index], displaylen[index]);
+    }
+
+    public String getAnim(int index) {
+        switch (animlen[index]) {
+            case ANIM_NULL:
+                return null;
+            case ANIM_SAME:
+                return getDisplay(index);
+        }
+        return decode(animpos[index], animlen[index]);
+    }
+
+    public String getNotation(int index) {
+        return (notationindex[index] < 0 ? null : strings.get(notationindex[index]));
+    }
+
+    public String getAnimPrefs(int index) {
+        return (animprefsindex[index] < 0 ? null : strings.get(animprefsindex[index]));
+    }
+
+    public Object getPattern(int index)     { return jml.get(index); }
+
+    // Length in characters of the longest display string
+    public int getMaxDisplayLength()    { return maxdisplaylength; }
+
+    // Write the display or animation string for a line, optionally escaped
+    // for XML, without creating intermediate Strings.
+    public void writeDisplay(int index, Writer wr, boolean escape) throws IOException {
+        write(displaypos[index], displaylen[index], wr, escape);
+    }
+
+    public void writeAnim(int index, Writer wr, boolean escape) throws IOException {
+        switch (animlen[index]) {
+            case ANIM_NULL:
+                return;
+            case ANIM_SAME:
+                writeDisplay(index, wr, escape);
+                return;
+        }
+        write(animpos[index], animlen[index], wr, escape);
+    }
+
+    // ------------------------------------------------------------------------
+
+    protected int indexOfString(String s) {
+        if (s == null)
+            return -1;
+        Integer index = stringindex.get(s);
+        if (index == null) {
+            index = strings.size();
+            strings.add(s);
+            stringindex.put(s, index);
+        }
+        return index;
+    }
+
+    protected long storeBytes(byte[] b) {
+        if (chunks.isEmpty() || b.length > CHUNK_SIZE - chunkfill) {
+            if (b.length > CHUNK_SIZE) {
+                // give it a chunk of its own, and leave the current one full
+                chunks.add(b);
+                chunks.add(new byte[CHUNK_SIZE]);
+                chunkfill = 0;
+                return ((long)(chunks.size() - 2) << 32);
+            }
+            chunks.add(new byte[CHUNK_SIZE]);
+            chunkfill = 0;
+        }
+        int chunk = chunks.size() - 1;
+        System.arraycopy(b, 0, chunks.get(chunk), chunkfill, b.length);
+        long pos = ((long)chunk << 32) | chunkfill;
+        chunkfill += b.length;
+        return pos;
+    }
+
+    protected String decode(long pos, int length) {
+        byte[] chunk = chunks.get((int)(pos >>> 32));
+        return new String(chunk, (int)pos, length, StandardCharsets.UTF_8);
+    }
+
+    protected void write(long pos, int length, Writer wr, boolean escape) throws IOException {
+        byte[] chunk = chunks.get((int)(pos >>> 32));
+        int offset = (int)pos;
+
+        // fast path for ASCII, which is everything the generators produce
+        for (int i = 0; i < length; i++) {
+            if (chunk[offset + i] < 0) {
+                String s = decode(pos, length);
+                wr.write(escape ? JMLNode.xmlescape(s) : s);
+                return;
+            }
+        }
+
+        if (charbuf.length < 6 * length)
+            charbuf = new char[6 * length];
+        int n = 0;
+
+        for (int i = 0; i < length; i++) {
+            char c = (char)chunk[offset + i];
+            if (escape) {
+                // same as JMLNode.xmlescape()
+                String rep = null;
+                switch (c) {
+                    case '&':
+                        rep = "&amp;";
+                        break;
+                    case '<':
+                        rep = "&lt;";
+                        break;
+                    case '>':
+                        rep = "&gt;";
+                        break;
+                    case '\'':
+                        rep = "&apos;";
+                        break;
+                    case '"':
+                        rep = "&quot;";
+                        break;
+                }
+                if (rep != null) {
+                    rep.getChars(0, rep.length(), charbuf, n);
+                    n += rep.length();
+                    continue;
+                }
+            }
+            charbuf[n++] = c;
+        }
+        wr.write(charbuf, 0, n);
+    }
+}
@@ -18,6 +18,8 @@ public abstract class Generator {
     static final ResourceBundle guistrings = jugglinglab.JugglingLab.guistrings;
     static final ResourceBundle errorstrings = jugglinglab.JugglingLab.errorstrings;
 
+    protected GeneratorProgress.Listener progress_listener;
+
     // The built-in generators
     public static final String[] builtinGenerators = { "Siteswap" };
 
@@ -40,6 +42,11 @@ public abstract class Generator {
         initGenerator(args);
     }
 
+    // receive progress reports while the generator runs (null for none)
+    public void setProgressListener(GeneratorProgress.Listener listener) {
+        progress_listener = listener;
+    }
+
     // return the notation name
     public abstract String getNotationName();
 
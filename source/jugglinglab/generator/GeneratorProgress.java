@@ -0,0 +1,97 @@
+// GeneratorProgress.java
+//
+// Copyright 2021 by Jack Boyce (jboyce@gmail.com)
+
+package jugglinglab.generator;
+
+import java.text.MessageFormat;
+import java.util.ResourceBundle;
+
+
+// A snapshot of how far along a generator or transitioner run is, sent to a
+// GeneratorProgress.Listener about once a second while the search is going.
+
+public class GeneratorProgress {
+    static final ResourceBundle guistrings = jugglinglab.JugglingLab.guistrings;
+
+    // milliseconds between reports
+    public static final long REPORT_INTERVAL_MILLIS = 1000L;
+
+    // Receives reports during a run. These come from the thread doing the
+    // search, so the listener should be quick.
+    public interface Listener {
+        public void progressUpdate(GeneratorProgress progress);
+    }
+
+    protected long nodes;
+    protected long nodes_estimate;
+    protected int patterns;
+    protected int length;
+    protected long millis;
+
+
+    // `nodes_estimate` is the estimated total number of nodes in the search,
+    // or a negative number if there is no estimate.
+    public GeneratorProgress(long nodes, long nodes_estimate, int patterns,
+                            int length, long millis) {
+        this.nodes = nodes;
+        this.nodes_estimate = nodes_estimate;
+        this.patterns = patterns;
+        this.length = length;
+        this.millis = millis;
+    }
+
+    // number of nodes in the search tree visited so far
+    public long getNodes()              { return nodes; }
+
+    // number of patterns found so far
+    public int getPatterns()            { return patterns; }
+
+    // pattern length currently being searched
+    public int getLength()              { return length; }
+
+    // time since the run started
+    public long getElapsedMillis()      { return millis; }
+
+    public double getPatternsPerSecond() {
+        return (millis > 0 ? 1000.0 * patterns / millis : 0.0);
+    }
+
+    // Returns the estimated fraction of the search done so far, or a negative
+    // number if unknown.
+    //
+    // The estimate of the search size is only a rough one, so this is kept
+    // below 1 until the run finishes.
+    public double getFractionDone() {
+        if (nodes_estimate <= 0)
+            return -1.0;
+        return Math.min((double)nodes / nodes_estimate, 0.99);
+    }
+
+    // Returns the estimated time until the run finishes, or a negative number
+    // if unknown.
+    public long getRemainingMillis() {
+        double fraction = getFractionDone();
+        if (fraction <= 0.0)
+            return -1L;
+        return (long)(millis * (1.0 - fraction) / fraction);
+    }
+
+    @Override
+    public String toString() {
+        Object[] arguments = { new Long(nodes), new Integer(patterns),
+                               new Double(getPatternsPerSecond()), new Integer(length) };
+        String result = MessageFormat.format(guistrings.getString("Generator_progress"),
+                                             arguments);
+
+        double fraction = getFractionDone();
+        if (fraction >= 0.0) {
+            long secs = (getRemainingMillis() + 999L) / 1000L;
+            Object[] arguments2 = { new Double(fraction), new Long(secs / 3600L),
+                                    new Long((secs / 60L) % 60L), new Long(secs % 60L) };
+            result += MessageFormat.format(guistrings.getString("Generator_progress_eta"),
+                                           arguments2);
+        }
+        return result;
+    }
+}
@@ -5,7 +5,6 @@
 package jugglinglab.generator;
 
 import java.io.PrintStream;
-import javax.swing.SwingUtilities;
 
 import jugglinglab.core.Constants;
 import jugglinglab.core.PatternList;
@@ -40,7 +39,7 @@ public class GeneratorTarget {
         this.btarget = sb;
     }
 
-    public void writePattern(String display, final String notation, String anim) throws JuggleExceptionInternal {
+    public void writePattern(String display, String notation, String anim) throws JuggleExceptionInternal {
         if (prefix != null) {
             display = prefix + display;
             anim = prefix + anim;
@@ -50,9 +49,6 @@ public class GeneratorTarget {
             anim = anim + suffix;
         }
 
-        final String fdisplay = display;
-        final String fanim = anim;
-
         if (Constants.VALIDATE_GENERATED_PATTERNS) {
             if (ltarget != null || ptarget != null) {
                 if (notation.equalsIgnoreCase("siteswap") && anim.length() > 0) {
@@ -69,19 +65,13 @@ public class GeneratorTarget {
 
         if (ltarget != null) {
             // This method isn't necessarily being called from the event dispatch
-            // thread, so do it this way to ensure the displayed list is only
-            // updated from the event dispatch thread.
-            SwingUtilities.invokeLater(new Runnable() {
-                @Override
-                public void run() {
-                    ltarget.addPattern(fdisplay, null, notation, fanim, null);
-                }
-            });
+            // thread, so have the list queue it up
+            ltarget.addPatternLater(display, null, notation, anim);
         }
         if (ptarget != null)
-            ptarget.println(fdisplay);
+            ptarget.println(display);
         if (btarget != null)
-            btarget.append(fdisplay + '\n');
+            btarget.append(display + '\n');
     }
 
     // Sets a prefix and suffix for both the displayed string and animation string.
@@ -90,6 +80,12 @@ public class GeneratorTarget {
         suffix = su;
     }
 
+    // Makes sure everything written so far has been output.
+    public void flush() {
+        if (ptarget != null)
+            ptarget.flush();
+    }
+
     public void setStatus(String display) {
         if (ptarget != null)
             ptarget.println(display);
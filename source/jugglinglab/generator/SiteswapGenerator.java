@@ -4,8 +4,23 @@
 
 package jugglinglab.generator;
 
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.text.MessageFormat;
+import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 import javax.swing.JPanel;
@@ -57,6 +72,11 @@ public class SiteswapGenerator extends Generator {
     protected final static int async_rhythm_repunit[][] = { { 1 } };
     protected final static int sync_rhythm_repunit[][] = { { 1, 0 }, { 1, 0 } };
     private final static int loop_counter_max = 20000;
+    private final static int random_tries_max = 100000;
+    private final static long checkpoint_interval_millis = 60000L;
+    private final static long checkpoint_hook_wait_millis = 5000L;
+    private final static int search_probes = 16;
+    private final static long search_seed = 1L;
 
     // configuration variables
     protected int n;
@@ -67,6 +87,15 @@ public class SiteswapGenerator extends Generator {
     protected ArrayList<Pattern> exclude;
     protected ArrayList<Pattern> include;
     protected int numflag;
+    protected boolean countflag;
+    protected int random_num;
+    protected long random_seed;
+    protected boolean random_seeded;
+    protected String checkpoint_file;   // file to save search progress in
+    protected boolean resumeflag;
+    protected int shard_num;            // which shard of the search to do (1-based)
+    protected int shard_total;          // number of shards, or 0 if not sharding
+    protected boolean progressflag;     // for CLI mode only
     protected int groundflag;
     protected int rotflag;
     protected int fullflag;
@@ -114,8 +143,68 @@ public class SiteswapGenerator extends Generator {
     protected double max_time;          // maximum number of seconds
     protected long max_time_millis;     // maximum number of milliseconds
     protected long start_time_millis;   // start time of run, in milliseconds
-    protected int loop_counter;         // gen_loop() counter for checking timeout
-
+    protected int loop_counter;         // nextPattern() counter for periodic checks
+    protected int patterns_found;       // number found so far by runGenerator()
+    protected int patterns_resumed;     // number found by earlier runs, if resuming
+    protected long checkpoint_millis;   // time of last checkpoint, in milliseconds
+    protected volatile boolean checkpoint_requested;  // set by shutdown hook
+    protected boolean checkpoint_final; // true once the last save is done
+    protected long nodes_visited;       // number of throws tried by nextPattern()
+    protected long nodes_estimate;      // estimated total, or -1 if none
+    protected long progress_millis;     // time of last progress report
+
+    // search state for nextPattern()
+    protected int[] ball_slot;          // slot of each ball in starting state
+    protected boolean state_started;
+    protected long start_ordinal;       // number of starting states so far
+    protected long start_first;         // range of starting states to search
+    protected long start_last;
+    protected int depth;                // number of stack frames
+    protected int[] frame_pos;
+    protected int[] frame_hand;
+    protected int[] frame_slot;
+    protected int[] frame_throw;
+    protected int[] frame_to;
+    protected boolean[] frame_tried;
+    protected int[] frame_outputpos;
+
+    // loops completed so far, for pruning bad rotations; see isLoopValid()
+    protected int[] loop_count;         // number of loops done by each beat
+    protected int[] loop_start;         // starting beat of each loop
+    protected int[] loop_period;        // see isLoopValid()
+    protected int state_cmp;            // state[0] vs. last state checked; see isStateValid()
+
+    // states so far when listing only simple loops; see isStateNew()
+    protected long[] prime_key;         // hash of the state at each beat
+    protected int[] prime_slot;         // where each beat is in prime_table[]
+    protected int[] prime_table;
+    protected int prime_top;            // last beat in prime_table[]
+
+    // relabelings of the jugglers, for listing only one of them; see
+    // isStateCanonical()
+    protected boolean canonical_jugglers;
+    protected boolean canonical_states; // see isStateCanonical()
+    protected long[][] state_keys;      // see findJugglerKeys()
+    protected int[][] state_order;
+    protected long[] perm_least;
+    protected int[] perm_beats;         // see isJugglerLabelingBest()
+    protected int num_perm_beats;
+    protected int[] perm_juggler;       // relabeling being tried
+    protected int[] perm_juggler_inv;
+    protected boolean[] perm_used;
+    protected int[] perm_hand;          // the same relabeling of the hands
+    protected int[] perm_hand_inv;
+    protected ArrayList<int[]> stab_hand;  // see findStabilizer()
+    protected ArrayList<int[]> stab_hand_inv;
+    protected int[] stab_diff;
+
+    // part of the search done when sharding; see findShard()
+    protected long shard_first_ordinal;
+    protected int shard_skip;           // first-throw choices to skip there
+    protected long shard_last_ordinal;
+    protected int shard_stop;           // first-throw choices to search there
+
+    protected String[] config_args;
     protected SiteswapGeneratorControl control;
     protected GeneratorTarget target;
 
@@ -155,6 +244,7 @@ public class SiteswapGenerator extends Generator {
     public void initGenerator(String[] args) throws JuggleExceptionUser {
         configGenerator(args);
         allocateWorkspace();
+        config_args = args.clone();
     }
 
     @Override
@@ -169,7 +259,7 @@ public class SiteswapGenerator extends Generator {
 
         max_num = num_limit;
         max_time = secs_limit;
-        if (max_time > 0 || Constants.DEBUG_GENERATOR) {
+        if (max_time > 0 || progress_listener != null || Constants.DEBUG_GENERATOR) {
             max_time_millis = (long)(1000.0 * secs_limit);
             start_time_millis = System.currentTimeMillis();
             loop_counter = 0;
@@ -178,9 +268,88 @@ public class SiteswapGenerator extends Generator {
         try {
             target = t;
 
+            if (countflag) {
+                BigInteger count = countPatterns();
+
+                if (count.equals(BigInteger.ONE))
+                    target.setStatus(guistrings.getString("Generator_patterns_1"));
+                else {
+                    String template = guistrings.getString("Generator_patterns_ne1");
+                    Object[] arguments = { count };
+                    target.setStatus(MessageFormat.format(template, arguments));
+                }
+                return count.min(BigInteger.valueOf(Integer.MAX_VALUE)).intValue();
+            }
+
             int num = 0;
-            for (l_target = l_min; l_target <= l_max; l_target += rhythm_period)
-                num += findPatterns(0, 0, 0);
+            if (random_num > 0)
+                num = samplePatterns();
+            else {
+                nodes_estimate = -1L;
+                if (shard_total > 0) {
+                    String template = guistrings.getString("Generator_shard");
+                    Object[] arguments = { new Integer(shard_num), new Integer(shard_total) };
+                    target.setStatus(MessageFormat.format(template, arguments));
+                    findShard();
+                } else {
+                    if (progress_listener != null)
+                        nodes_estimate = (long)estimateSearch(new ArrayList<Long>(),
+                                    new ArrayList<Integer>(), new ArrayList<Double>());
+                    startSearch(0, Long.MAX_VALUE);
+                }
+
+                patterns_found = 0;
+                if (resumeflag)
+                    resumeSearch();
+                patterns_resumed = patterns_found;
+                nodes_visited = 0L;
+                checkpoint_millis = progress_millis = System.currentTimeMillis();
+
+                // A SIGINT (Ctrl-C) ends the JVM without unwinding this thread,
+                // so use a shutdown hook to have the search save its progress.
+                Thread hook = null;
+                if (checkpoint_file != null) {
+                    checkpoint_requested = false;
+                    checkpoint_final = false;
+                    hook = new Thread() {
+                        @Override
+                        public void run() {
+                            waitForCheckpoint();
+                        }
+                    };
+                    Runtime.getRuntime().addShutdownHook(hook);
+                }
+
+                try {
+                    int outputpos;
+                    while ((outputpos = nextPattern()) >= 0) {
+                        if (numflag != 2)
+                            outputPattern(outputpos);
+
+                        // the limit applies to this run, not to earlier ones
+                        ++patterns_found;
+                        if (max_num >= 0 && patterns_found - patterns_resumed >= max_num) {
+                            String template = guistrings.getString("Generator_spacelimit");
+                            Object[] arguments = { new Integer(max_num) };
+                            throw new JuggleExceptionDone(MessageFormat.format(template, arguments));
+                        }
+                    }
+                } finally {
+                    // save where we stopped, whether finished or not
+                    if (checkpoint_file != null) {
+                        try {
+                            saveFinalCheckpoint();
+                        } finally {
+                            try {
+                                Runtime.getRuntime().removeShutdownHook(hook);
+                            } catch (IllegalStateException ise) {
+                                // JVM is already shutting down
+                            }
+                        }
+                    }
+                }
+                num = patterns_found;
+            }
 
             if (numflag != 0) {
                 if (num == 1)
@@ -201,6 +370,67 @@ public class SiteswapGenerator extends Generator {
         }
     }
 
+    // Returns the patterns one at a time, as the lines runGenerator() would
+    // output. Patterns are found as they're requested, so this works for
+    // searches too large to run all at once.
+    //
+    // The iterator uses this generator's workspace, so the generator shouldn't
+    // be used for anything else until it's done. If the thread is interrupted
+    // the iteration ends, and the interrupt status is left set. Checkpointing
+    // and sharding don't apply here, and progress reports have no estimate
+    // of the time left.
+    public Iterator<String> iterator() {
+        startSearch(0, Long.MAX_VALUE);
+        max_time = -1.0;
+        checkpoint_file = null;
+        shard_total = 0;
+        nodes_visited = 0L;
+        nodes_estimate = -1L;
+        start_time_millis = progress_millis = System.currentTimeMillis();
+        return new Iterator<String>() {
+            String next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null)
+                    next = findNextLine(SiteswapGenerator.this);
+                return (next != null);
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                String result = next;
+                next = null;
+                return result;
+            }
+        };
+    }
+
+    // Returns a Spliterator over the same patterns as iterator(), suitable for
+    // making a parallel Stream. Splitting divides up the starting states, with
+    // each part searched by its own copy of the generator.
+    public Spliterator<String> spliterator() {
+        // count the starting states
+        startSearch(0, Long.MAX_VALUE);
+        while (l_target <= l_max) {
+            if (nextStartingState())
+                ++start_ordinal;
+            else {
+                l_target += rhythm_period;
+                state_started = false;
+            }
+        }
+
+        startSearch(0, start_ordinal);
+        max_time = -1.0;
+        checkpoint_file = null;
+        shard_total = 0;
+        return new PatternSpliterator(this);
+    }
+
+
     //--------------------------------------------------------------------------
     // Non-public methods below
     //--------------------------------------------------------------------------
@@ -221,6 +451,13 @@ public class SiteswapGenerator extends Generator {
         max_occupancy = 0;
         leader_person = 1;
         numflag = 0;
+        countflag = false;
+        random_num = 0;
+        random_seeded = false;
+        checkpoint_file = null;
+        resumeflag = false;
+        shard_total = 0;
+        progressflag = false;
         groundflag = 0;
         rotflag = 0;
         fullflag = mpflag = 1;
@@ -244,6 +481,8 @@ public class SiteswapGenerator extends Generator {
                 numflag = 1;
             else if (args[i].equals("-no"))
                 numflag = 2;
+            else if (args[i].equals("-count"))
+                countflag = true;
             else if (args[i].equals("-g"))
                 groundflag = 1;
             else if (args[i].equals("-ng"))
@@ -258,6 +497,8 @@ public class SiteswapGenerator extends Generator {
                 juggler_permutations = true;
             else if (args[i].equals("-lame"))
                 lameflag = true;
+            else if (args[i].equals("-progress"))
+                progressflag = true;
             else if (args[i].equals("-se"))
                 sequenceflag = false;
             else if (args[i].equals("-s"))
@@ -305,6 +546,60 @@ public class SiteswapGenerator extends Generator {
                     ++i;
                 }
             }
+            else if (args[i].equals("-random")) {
+                if (i < (args.length - 1) && args[i + 1].charAt(0) != '-') {
+                    try {
+                        random_num = Integer.parseInt(args[i + 1]);
+                    } catch (NumberFormatException nfe) {
+                        String template = errorstrings.getString("Error_number_format");
+                        String str = guistrings.getString("random_patterns");
+                        Object[] arguments = { str };
+                        throw new JuggleExceptionUser(MessageFormat.format(template, arguments));
+                    }
+                    ++i;
+                }
+            }
+            else if (args[i].equals("-seed")) {
+                if (i < (args.length - 1)) {
+                    try {
+                        random_seed = Long.parseLong(args[i + 1]);
+                        random_seeded = true;
+                    } catch (NumberFormatException nfe) {
+                        String template = errorstrings.getString("Error_number_format");
+                        String str = guistrings.getString("random_seed");
+                        Object[] arguments = { str };
+                        throw new JuggleExceptionUser(MessageFormat.format(template, arguments));
+                    }
+                    ++i;
+                }
+            }
+            else if (args[i].equals("-save") || args[i].equals("-resume")) {
+                if (i < (args.length - 1)) {
+                    resumeflag = args[i].equals("-resume");
+                    checkpoint_file = args[++i];
+                }
+            }
+            else if (args[i].equals("-shard")) {
+                if (i < (args.length - 1)) {
+                    String[] parts = args[++i].split("/");
+                    try {
+                        if (parts.length != 2)
+                            throw new NumberFormatException();
+                        shard_num = Integer.parseInt(parts[0]);
+                        shard_total = Integer.parseInt(parts[1]);
+                    } catch (NumberFormatException nfe) {
+                        String template = errorstrings.getString("Error_number_format");
+                        String str = guistrings.getString("shard");
+                        Object[] arguments = { str };
+                        throw new JuggleExceptionUser(MessageFormat.format(template, arguments));
+                    }
+                    if (shard_total < 1 || shard_num < 1 || shard_num > shard_total) {
+                        String template = errorstrings.getString("Error_generator_shard");
+                        Object[] arguments = { args[i] };
+                        throw new JuggleExceptionUser(MessageFormat.format(template, arguments));
+                    }
+                }
+            }
             else if (args[i].equals("-d")) {
                 if (i < (args.length - 1) && args[i + 1].charAt(0) != '-') {
                     try {
@@ -500,6 +795,42 @@ public class SiteswapGenerator extends Generator {
             if (include_RE != null)
                 include.add(Pattern.compile(include_RE));
         }
+
+        // Counting works on the state graph alone, so it can't apply the
+        // filters that look at the pattern as a whole
+        if (countflag) {
+            String unsupported = null;
+            if (exclude.size() > 0)
+                unsupported = "-x";
+            else if (true_multiplex)
+                unsupported = "-mt";
+            else if (include.size() > 0)
+                unsupported = "-i";
+            else if (lameflag)
+                unsupported = "-lame";
+            else if (fullflag == 2)
+                unsupported = "-prime";
+            else if (connected_patterns)
+                unsupported = "-cp";
+            else if (jugglers > 1 && delaytime > 0)
+                unsupported = "-d";
+            else if (random_num > 0)
+                unsupported = "-random";
+            else if (checkpoint_file != null)
+                unsupported = (resumeflag ? "-resume" : "-save");
+            else if (shard_total > 0)
+                unsupported = "-shard";
+
+            if (unsupported != null) {
+                String template = errorstrings.getString("Error_generator_count_unsupported");
+                Object[] arguments = { unsupported };
+                throw new JuggleExceptionUser(MessageFormat.format(template, arguments));
+            }
+            if (mpflag != 0)
+                throw new JuggleExceptionUser(errorstrings.getString("Error_generator_count_multiplex"));
+            if (jugglers > 1 && !juggler_permutations)
+                throw new JuggleExceptionUser(errorstrings.getString("Error_generator_count_permutations"));
+        }
     }
 
     // Initializes configuration data structures to reflect operating mode.
@@ -556,6 +887,17 @@ public class SiteswapGenerator extends Generator {
 
         throws_left = new int[l_max][hands];
 
+        // every throw in the pattern gets a stack frame while it's assigned
+        ball_slot = new int[n];
+        int max_depth = n * l_max + 1;
+        frame_pos = new int[max_depth];
+        frame_hand = new int[max_depth];
+        frame_slot = new int[max_depth];
+        frame_throw = new int[max_depth];
+        frame_to = new int[max_depth];
+        frame_tried = new boolean[max_depth];
+        frame_outputpos = new int[max_depth];
+
         if (jugglers > 1) {  // passing communication delay variables
             scratch1 = new int[hands];
             scratch2 = new int[hands];
@@ -564,75 +906,95 @@ public class SiteswapGenerator extends Generator {
         if (connected_patterns)
             connections = new boolean[jugglers];
 
+        if (fullflag == 0 && rotflag == 0) {
+            loop_count = new int[l_max + 1];
+            loop_start = new int[l_max + 1];
+            loop_period = new int[l_max + 1];
+        }
+
+        if (fullflag == 2) {
+            prime_key = new long[l_max + 1];
+            prime_slot = new int[l_max + 1];
+            prime_table = new int[4 * Integer.highestOneBit(l_max + 1)];
+            prime_top = 0;
+        }
+
         if (jugglers > 1 && !juggler_permutations) {
             perm_scratch1 = new boolean[l_max];
             perm_scratch2 = new boolean[l_max];
-        }
+
+            // Relabelings can be ruled out during the search, except when
+            // multiplexing (relabeling can change the order of the throws
+            // within a hand), with a communication delay (the leader isn't
+            // interchangeable with the others), or with -lame (check #2 in
+            // isPatternValid() depends on the rotation). Also each juggler's
+            // part of a state has to fit into a long; see findJugglerKeys().
+            canonical_jugglers = (max_occupancy == 1 && delaytime == 0 && !lameflag
+                                  && ht * (hands / jugglers) < 64);
+            canonical_states = canonical_jugglers && (fullflag != 1 || rotflag != 0);
+            if (canonical_jugglers) {
+                state_keys = new long[l_max + 1][jugglers];
+                state_order = new int[l_max + 1][jugglers];
+                perm_least = new long[jugglers];
+                perm_beats = new int[l_max];
+                perm_juggler = new int[jugglers];
+                perm_juggler_inv = new int[jugglers];
+                perm_used = new boolean[jugglers];
+                perm_hand = new int[hands];
+                perm_hand_inv = new int[hands];
+                stab_hand = new ArrayList<int[]>();
+                stab_hand_inv = new ArrayList<int[]>();
+                stab_diff = new int[jugglers];
+            }
+        } else
+            canonical_jugglers = canonical_states = false;
     }
 
-    // Generates all patterns.
+    // Resets the search so that nextPattern() starts from the beginning.
     //
-    // It does this by generating all possible starting states recursively,
-    // then calling findCycles() to find the loops for each one.
-    protected int findPatterns(int balls_placed, int min_value, int min_to) throws JuggleExceptionUser, JuggleExceptionInternal {
-        if (Thread.interrupted())
-            throw new JuggleExceptionInterrupted();
-
-        // check if we're done making the state
-        if (balls_placed == n || groundflag == 1) {
-            if (groundflag == 1) {  // find only ground state patterns?
-                for (int i = 0; i < hands; ++i)
-                    for (int j = 0; j < ht; ++j)
-                        state[0][i][j] = ground_state[i][j];
-            } else if (groundflag == 2 &&
-                    compareStates(state[0], ground_state) == 0)
-                return 0;  // don't find ground state patterns
-
-            // At this point our state is completed.  Check to see if it's
-            // valid. (Position X must be at least as large as position X+L,
-            // where L = pattern length.) Also set up the initial multiplexing
-            // filter frame, if needed.
+    // Only the starting states numbered `first` through `last - 1` (in the
+    // order nextStartingState() finds them, over all pattern lengths) are
+    // searched.
+    protected void startSearch(long first, long last) {
+        l_target = l_min;
+        start_ordinal = 0;
+        start_first = first;
+        start_last = last;
+        state_started = false;
+        depth = 0;
+        loop_counter = 0;
+    }
 
-            for (int i = 0; i < hands; ++i) {
-                int j = 0;
-
-                for ( ; j < ht; ++j) {
-                    int k = state[0][i][j];
-
-                    if (mpflag != 0 && k == 0)
-                        mp_filter[0][i][j][TYPE] = MP_EMPTY;
-                    else {
-                        if (mpflag != 0) {
-                            mp_filter[0][i][j][VALUE] = j + 1;
-                            mp_filter[0][i][j][FROM] = i;
-                            mp_filter[0][i][j][TYPE] = MP_LOWER_BOUND;
-                        }
+    // Moves on to the next starting state (and pattern length, if needed),
+    // and sets up the search for patterns through it. Returns false when
+    // there are no more.
+    protected boolean nextStart() {
+        while (l_target <= l_max) {
+            if (!nextStartingState()) {
+                l_target += rhythm_period;
+                state_started = false;
+                continue;
+            }
 
-                        int m = j;
-                        int q = 0;
+            long ordinal = start_ordinal++;
+            if (ordinal < start_first)
+                continue;
+            if (ordinal >= start_last)
+                break;
 
-                        while ((m += l_target) < ht) {
-                            if ((q = state[0][i][m]) > k)
-                                return 0;  // die (invalid state for this L)
-                            if (mpflag != 0 && q != 0) {
-                                if (q < k && j > holdthrow[i])
-                                    return 0;  // different throws into same hand
-                                mp_filter[0][i][j][VALUE] = m + 1;  // new bound
-                            }
-                        }
-                    }
-                }
+            if (groundflag == 2 && compareStates(state[0], ground_state) == 0)
+                continue;  // don't find ground state patterns
 
-                if (mpflag != 0)
-                    for ( ; j < slot_size; ++j)
-                        mp_filter[0][i][j][TYPE] = MP_EMPTY;  // clear rest of slot
-            }
+            // At this point our state is completed. Check to see if it's
+            // valid, and set up the initial multiplexing filter frame.
+            if (!startPattern())
+                continue;
 
             if (numflag != 2 && sequenceflag)
                 findStartEnd();
 
             if (Constants.DEBUG_GENERATOR) {
-                System.out.println("Starting findCycles() from state:");
+                System.out.println("Starting search from state:");
                 printState(state[0]);
             }
 
@@ -656,161 +1018,1068 @@ public class SiteswapGenerator extends Generator {
                 }
             }
 
+            if (fullflag == 0 && rotflag == 0)
+                loop_count[0] = 0;
+
             startBeat(0);
-            return findCycles(0, 1, 0, 0);  // find patterns thru state
+            return true;
+        }
+
+        start_last = start_ordinal;  // nothing more to search
+        return false;
+    }
+
+    // Puts the next possible starting state into state[0]. Returns false if
+    // there are no more for this pattern length.
+    //
+    // The states are made by placing the balls one at a time, each one into a
+    // slot no lower than the one before, so that each state is generated only
+    // once.
+    protected boolean nextStartingState() {
+        if (groundflag == 1) {  // find only ground state patterns?
+            if (state_started)
+                return false;
+            for (int i = 0; i < hands; ++i)
+                for (int j = 0; j < ht; ++j)
+                    state[0][i][j] = ground_state[i][j];
+            state_started = true;
+            return true;
         }
 
-        if (balls_placed == 0) {  // startup, clear state
+        int b = 0;
+        int slot = 0;
+
+        if (!state_started) {  // startup, clear state
             for (int i = 0; i < hands; ++i)
                 for (int j = 0; j < ht; ++j)
                     state[0][i][j] = 0;
+            state_started = true;
+        } else {
+            b = n - 1;
+            slot = ball_slot[b];
+            --state[0][slot % hands][slot / hands];
+            ++slot;
+        }
+
+        while (true) {
+            // find a place for ball `b` at `slot` or above
+            for ( ; slot < ht * hands; ++slot) {
+                int i = slot / hands;
+                int j = slot % hands;
+
+                if (state[0][j][i] < rhythm[0][j][i]) {
+                    ++state[0][j][i];
+                    if (i < l_target || state[0][j][i] <= state[0][j][i - l_target])
+                        break;
+                    --state[0][j][i];
+                }
+            }
+
+            if (slot < ht * hands) {
+                ball_slot[b] = slot;
+                if (++b == n)
+                    return true;
+            } else {
+                if (--b < 0)
+                    return false;
+                slot = ball_slot[b];
+                --state[0][slot % hands][slot / hands];
+                ++slot;
+            }
+        }
+    }
+
+    // Checks the starting state in state[0] for patterns of length l_target,
+    // and sets up the initial multiplexing filter frame if needed. (Position
+    // X must be at least as large as position X+L, where L = pattern length.)
+    //
+    // Returns false if the state is invalid.
+    protected boolean startPattern() {
+        if (canonical_jugglers)
+            findJugglerKeys(0);
+        if (canonical_states) {
+            if (!isStateCanonical(0))
+                return false;
+            findStabilizer();
+        }
+
+        for (int i = 0; i < hands; ++i) {
+            int j = 0;
+
+            for ( ; j < ht; ++j) {
+                int k = state[0][i][j];
+
+                if (mpflag != 0 && k == 0)
+                    mp_filter[0][i][j][TYPE] = MP_EMPTY;
+                else {
+                    if (mpflag != 0) {
+                        mp_filter[0][i][j][VALUE] = j + 1;
+                        mp_filter[0][i][j][FROM] = i;
+                        mp_filter[0][i][j][TYPE] = MP_LOWER_BOUND;
+                    }
+
+                    int m = j;
+                    int q = 0;
+
+                    while ((m += l_target) < ht) {
+                        if ((q = state[0][i][m]) > k)
+                            return false;  // die (invalid state for this L)
+                        if (mpflag != 0 && q != 0) {
+                            if (q < k && j > holdthrow[i])
+                                return false;  // different throws into same hand
+                            mp_filter[0][i][j][VALUE] = m + 1;  // new bound
+                        }
+                    }
+                }
+            }
+
+            if (mpflag != 0)
+                for ( ; j < slot_size; ++j)
+                    mp_filter[0][i][j][TYPE] = MP_EMPTY;  // clear rest of slot
+        }
+
+        return true;
+    }
+
+    // Finds the next pattern. Returns the pattern's length in the output[]
+    // buffer, or -1 if there are no more.
+    //
+    // This generates cycles in the state graph through each starting state in
+    // turn. The search is written with an explicit stack rather than
+    // recursively, so that it can stop after each pattern and pick up again
+    // where it left off. Each stack frame is one throw being assigned, and
+    // holds the last throw value and destination hand tried.
+    protected int nextPattern() throws JuggleExceptionUser {
+        while (true) {
+            // Check for interrupts and do the other periodic work only now and
+            // then, to keep this loop tight.
+            if (++loop_counter > loop_counter_max) {
+                loop_counter = 0;
+                checkSearch();
+            }
+
+            if (depth == 0) {
+                // done with the current starting state
+                if (!nextStart())
+                    return -1;
+
+                int outputpos = extendPattern(0, 1, 0, 0);
+                if (outputpos >= 0)
+                    return outputpos;
+                continue;
+            }
+
+            int d = depth - 1;
+            int pos = frame_pos[d];
+            int j = frame_throw[d];
+            int k = frame_to[d];
+
+            if (frame_tried[d]) {
+                ++holes[k][pos + j];  // take back the last throw
+                ++k;
+            }
+
+            // Have a throw to assign. Try the possibilities in turn, staying
+            // in this loop while they lead nowhere so that the frame doesn't
+            // have to be reloaded each time.
+            while (true) {
+                findthrow:
+                for ( ; j <= ht; ++j) {
+                    for ( ; k < hands; ++k) {
+                        if (holes[k][pos + j] != 0)  // can we throw to position?
+                            break findthrow;
+                    }
+                    k = 0;
+                }
+
+                if (j > ht) {
+                    ++throws_left[pos][frame_hand[d]];
+                    --depth;
+                    break;
+                }
+
+                if (shard_total > 0 && d == 0 && !isInShard(j, k)) {
+                    ++k;
+                    continue;
+                }
+
+                ++nodes_visited;
+                int outputpos = makeThrow(d, j, k);
+                if (outputpos >= 0)
+                    return outputpos;
+                if (depth > d + 1)
+                    break;  // go on to the throw after this one
+
+                ++holes[k][pos + j];
+                ++k;
+            }
+        }
+    }
+
+    // Called periodically by nextPattern(). Checks for an interrupt or a
+    // timeout, and saves or reports our progress if it's time.
+    protected void checkSearch() throws JuggleExceptionUser {
+        if (Thread.interrupted())
+            throw new JuggleExceptionInterrupted();
+        if (max_time <= 0 && checkpoint_file == null && progress_listener == null)
+            return;
+
+        long millis = System.currentTimeMillis();
+        if (max_time > 0 && (millis - start_time_millis) > max_time_millis) {
+            String template = guistrings.getString("Generator_timeout");
+            Object[] arguments = { new Integer((int)max_time) };
+            throw new JuggleExceptionDone(MessageFormat.format(template, arguments));
         }
+        if (checkpoint_file != null) {
+            if (checkpoint_requested) {
+                // the JVM is shutting down; save and go no further
+                saveFinalCheckpoint();
+                throw new JuggleExceptionInterrupted();
+            }
+            if ((millis - checkpoint_millis) > checkpoint_interval_millis)
+                saveCheckpoint();
+        }
+        if (progress_listener != null &&
+                    (millis - progress_millis) >= GeneratorProgress.REPORT_INTERVAL_MILLIS) {
+            progress_listener.progressUpdate(new GeneratorProgress(nodes_visited,
+                        nodes_estimate, patterns_found, l_target,
+                        millis - start_time_millis));
+            progress_millis = millis;
+        }
+    }
+
+    // Makes throw value `j` to hand `k` for the throw in stack frame `d`, and
+    // carries the pattern forward as far as possible.
+    //
+    // Returns the pattern's length in the output buffer if this completes a
+    // valid pattern, otherwise -1.
+    protected int makeThrow(int d, int j, int k) {
+        int pos = frame_pos[d];
+        --holes[k][pos + j];
+
+        int h = frame_hand[d];
+        int slot = frame_slot[d];
+        throw_to[pos][h][slot] = k;
+        throw_value[pos][h][slot] = j;
+        frame_throw[d] = j;
+        frame_to[d] = k;
+        frame_tried[d] = true;
+
+        if (slot != 0)  // enforces ordering on multiplexed throws
+            return extendPattern(pos, j, k, frame_outputpos[d]);
+        else
+            return extendPattern(pos, 1, 0, frame_outputpos[d]);
+    }
+
+    // Carries the pattern forward until the next throw to be assigned, and
+    // pushes a stack frame for it.
+    //
+    // Arguments:
+    // int pos;              // beat number in pattern that we're constructing
+    // int min_throw;        // lowest we can throw this time
+    // int min_hand;         // lowest hand we can throw to this time
+    // int outputpos;        // current position in the char[] output buffer
+    //
+    // Returns the pattern's length in the output buffer if this completes a
+    // valid pattern, otherwise -1.
+    protected int extendPattern(int pos, int min_throw, int min_hand, int outputpos) {
+        while (true) {
+            // find the next hand with something to throw
+            int h = 0;
+            while (h < hands && throws_left[pos][h] == 0)
+                ++h;
+
+            if (h < hands) {
+                int d = depth++;
+                --throws_left[pos][h];
+                frame_pos[d] = pos;
+                frame_hand[d] = h;
+                frame_slot[d] = throws_left[pos][h];
+                frame_throw[d] = min_throw;
+                frame_to[d] = min_hand;
+                frame_tried[d] = false;
+                frame_outputpos[d] = outputpos;
+                return -1;
+            }
+
+            // Done with this beat. Do some checks to see if things are valid
+            // so far.
+
+            // output the throw as a string so we can test for exclusions
+            int outputpos_new = outputBeat(pos, output, outputpos);
+
+            if (!areThrowsValid(pos, outputpos_new))
+                return -1;
+            if (mpflag != 0 && !isMultiplexingValid(pos))
+                return -1;
+
+            calculateState(pos + 1);
+            if (!isStateValid(pos + 1))
+                return -1;
+            if (fullflag == 0 && rotflag == 0 && !isLoopValid(pos + 1))
+                return -1;
+            if (canonical_states && !isLabelingValid(pos))
+                return -1;
+
+            if (Constants.DEBUG_GENERATOR) {
+                StringBuffer sb = new StringBuffer();
+                for (int t = 0; t < pos; ++t)
+                    sb.append(".  ");
+                for (int t = outputpos; t < outputpos_new; ++t)
+                    sb.append(output[t]);
+                System.out.println(sb.toString());
+            }
+
+            // move to next beat
+            ++pos;
+
+            if (pos < l_target) {
+                startBeat(pos);
+                min_throw = 1;
+                min_hand = 0;
+                outputpos = outputpos_new;
+                continue;
+            }
+
+            // at the target length; does the pattern work? (isStateValid()
+            // has compared the final state with the starting one)
+            if (state_cmp == 0 && isPatternValid(outputpos_new)) {
+                if (Constants.DEBUG_GENERATOR) {
+                    StringBuffer sb = new StringBuffer();
+                    for (int t = 0; t < outputpos_new; ++t)
+                        sb.append(output[t]);
+                    System.out.println("got a pattern: " + sb.toString());
+                }
+                return outputpos_new;
+            }
+            return -1;
+        }
+    }
+
+    // Saves the progress of the search to the checkpoint file, so that a later
+    // run with the -resume option can pick up where this one left off.
+    //
+    // The stack frames are recorded by the throws chosen in them. The search
+    // is only ever interrupted between steps of nextPattern(), when every frame
+    // but possibly the top one has a throw.
+    protected void saveCheckpoint() throws JuggleExceptionUser {
+        // patterns printed so far must be out before the checkpoint counts them
+        target.flush();
+
+        int frames = depth;
+        if (frames > 0 && !frame_tried[frames - 1])
+            --frames;
+
+        StringBuffer sb = new StringBuffer();
+        for (int d = 0; d < frames; ++d) {
+            if (d > 0)
+                sb.append(' ');
+            sb.append(frame_throw[d]).append(',').append(frame_to[d]);
+        }
+
+        Properties cp = new Properties();
+        cp.setProperty("settings", getCheckpointSettings());
+        cp.setProperty("patterns", Integer.toString(patterns_found));
+        cp.setProperty("start", Long.toString(depth == 0 ?
+                    Math.max(start_ordinal, start_first) : start_ordinal - 1));
+        cp.setProperty("throws", sb.toString());
+
+        // write to a temporary file first, so that an interrupted save doesn't
+        // destroy the previous checkpoint
+        File file = new File(checkpoint_file);
+        File temp = new File(checkpoint_file + ".tmp");
+        try {
+            try (Writer out = new BufferedWriter(new FileWriter(temp))) {
+                cp.store(out, "Juggling Lab siteswap generator checkpoint");
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ioe) {
+            String template = errorstrings.getString("Error_writing_file");
+            Object[] arguments = { checkpoint_file };
+            throw new JuggleExceptionUser(MessageFormat.format(template, arguments));
+        }
+        checkpoint_millis = System.currentTimeMillis();
+    }
+
+    // Saves the checkpoint at the end of the run, and lets a shutdown hook
+    // waiting in waitForCheckpoint() know that it's done.
+    protected synchronized void saveFinalCheckpoint() throws JuggleExceptionUser {
+        if (checkpoint_final)
+            return;
+        try {
+            saveCheckpoint();
+        } finally {
+            checkpoint_final = true;
+            notifyAll();
+        }
+    }
+
+    // Called from the shutdown hook. Asks the search thread to save its
+    // progress, and waits for it to do so. The search thread only checks now
+    // and then, so give up after a while rather than hold up the shutdown.
+    protected synchronized void waitForCheckpoint() {
+        checkpoint_requested = true;
+        long end = System.currentTimeMillis() + checkpoint_hook_wait_millis;
+        long wait;
+        while (!checkpoint_final && (wait = end - System.currentTimeMillis()) > 0) {
+            try {
+                wait(wait);
+            } catch (InterruptedException ie) {
+                return;
+            }
+        }
+    }
+
+    // Restores the search from the checkpoint file. The stack frames are
+    // rebuilt by starting the search from the saved starting state and making
+    // the saved throws again.
+    //
+    // This narrows the range of the search set up already.
+    protected void resumeSearch() throws JuggleExceptionUser {
+        Properties cp = new Properties();
+        try (Reader in = new BufferedReader(new FileReader(checkpoint_file))) {
+            cp.load(in);
+        } catch (IOException ioe) {
+            String template = errorstrings.getString("Error_reading_file");
+            Object[] arguments = { checkpoint_file };
+            throw new JuggleExceptionUser(MessageFormat.format(template, arguments));
+        }
+
+        if (!getCheckpointSettings().equals(cp.getProperty("settings"))) {
+            String template = errorstrings.getString("Error_generator_checkpoint_mismatch");
+            Object[] arguments = { checkpoint_file };
+            throw new JuggleExceptionUser(MessageFormat.format(template, arguments));
+        }
+
+        boolean ok = true;
+        try {
+            patterns_found = Integer.parseInt(cp.getProperty("patterns"));
+            long start = Long.parseLong(cp.getProperty("start"));
+            startSearch(Math.max(start, start_first), start_last);
+
+            String choices = cp.getProperty("throws").trim();
+            if (choices.length() > 0) {
+                ok = nextStart();
+                if (ok)
+                    extendPattern(0, 1, 0, 0);
+
+                String[] frames = choices.split(" ");
+                for (int d = 0; ok && d < frames.length; ++d) {
+                    String[] choice = frames[d].split(",");
+                    int j = Integer.parseInt(choice[0]);
+                    int k = Integer.parseInt(choice[1]);
+
+                    ok = (depth == d + 1 && j >= 1 && j <= ht && k >= 0 && k < hands
+                                && holes[k][frame_pos[d] + j] != 0);
+                    if (ok)
+                        makeThrow(d, j, k);
+                }
+            }
+        } catch (NullPointerException | NumberFormatException |
+                    ArrayIndexOutOfBoundsException e) {
+            ok = false;
+        }
+
+        if (!ok) {
+            String template = errorstrings.getString("Error_reading_file");
+            Object[] arguments = { checkpoint_file };
+            throw new JuggleExceptionUser(MessageFormat.format(template, arguments));
+        }
+    }
+
+    // Returns the generator settings a checkpoint applies to, which are the
+    // arguments apart from the checkpoint options themselves.
+    protected String getCheckpointSettings() {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < config_args.length; ++i) {
+            if (config_args[i].equals("-save") || config_args[i].equals("-resume")) {
+                ++i;
+                continue;
+            }
+            if (sb.length() > 0)
+                sb.append(' ');
+            sb.append(config_args[i]);
+        }
+        return sb.toString();
+    }
+
+    // Sets up the search for the part of the patterns in shard `shard_num` of
+    // `shard_total`.
+    //
+    // The search tree is divided into top-level subtrees, one for each
+    // starting state and choice of first throw, and each shard is given a run
+    // of consecutive subtrees. Putting the shards' output one after the other
+    // then gives the same list as an unsharded run. The runs are balanced
+    // using estimateSearch(), which is repeatable, so every shard divides up
+    // the search in the same way.
+    protected void findShard() throws JuggleExceptionUser {
+        ArrayList<Long> ordinals = new ArrayList<Long>();
+        ArrayList<Integer> choices = new ArrayList<Integer>();
+        ArrayList<Double> sizes = new ArrayList<Double>();
+        double total = estimateSearch(ordinals, choices, sizes);
+
+        // subtree `i` goes to the shard containing the midpoint of its share
+        // of the total size
+        int first = -1;
+        int last = sizes.size();
+        double sum = 0.0;
+        for (int i = 0; i < sizes.size(); ++i) {
+            double mid = sum + 0.5 * sizes.get(i);
+            sum += sizes.get(i);
+            int shard = Math.min((int)(mid * shard_total / total), shard_total - 1) + 1;
+
+            if (shard >= shard_num && first < 0)
+                first = i;
+            if (shard > shard_num) {
+                last = i;
+                break;
+            }
+        }
+        if (first < 0)
+            first = last;
+
+        double size = 0.0;
+        for (int i = first; i < last; ++i)
+            size += sizes.get(i);
+        nodes_estimate = (long)size;
+
+        if (first == sizes.size()) {
+            startSearch(0, 0);  // nothing to search
+            shard_first_ordinal = shard_last_ordinal = -1;
+            return;
+        }
+
+        shard_first_ordinal = ordinals.get(first);
+        shard_skip = choices.get(first);
+
+        if (last == sizes.size()) {
+            startSearch(shard_first_ordinal, Long.MAX_VALUE);
+            shard_last_ordinal = -1;
+        } else {
+            shard_last_ordinal = ordinals.get(last);
+            shard_stop = choices.get(last);
+            startSearch(shard_first_ordinal, shard_last_ordinal + 1);
+        }
+    }
+
+    // Estimates the size of the search tree, as the number of throws the
+    // search will try, by following random paths down the tree (Knuth's
+    // method). The probes use a fixed seed, so the result is repeatable.
+    //
+    // The tree is divided into top-level subtrees, one for each starting
+    // state and choice of first throw. For each one this adds the starting
+    // state's ordinal, the number of the choice, and the estimated size to the
+    // lists. Returns the total estimated size.
+    protected double estimateSearch(ArrayList<Long> ordinals, ArrayList<Integer> choices,
+                        ArrayList<Double> sizes) throws JuggleExceptionUser {
+        Random rng = new Random(search_seed);
+        double total = 0.0;
+
+        startSearch(0, Long.MAX_VALUE);
+        while (nextStart()) {
+            if (Thread.interrupted())
+                throw new JuggleExceptionInterrupted();
+
+            extendPattern(0, 1, 0, 0);
+            if (depth == 0)
+                continue;
+
+            int pos = frame_pos[0];
+            int choice = 0;
+            for (int j = 1; j <= ht; ++j) {
+                for (int k = 0; k < hands; ++k) {
+                    if (holes[k][pos + j] == 0)
+                        continue;
+
+                    double size = 1.0;
+                    makeThrow(0, j, k);
+                    if (depth > 1) {
+                        double sum = 0.0;
+                        for (int p = 0; p < search_probes; ++p)
+                            sum += probeSearch(rng);
+                        size += sum / search_probes;
+                    }
+                    unwindStack(0, 1, 0);
+
+                    ordinals.add(start_ordinal - 1);
+                    choices.add(choice++);
+                    sizes.add(size);
+                    total += size;
+                }
+            }
+            unwindStack(-1, 0, 0);
+        }
+        return total;
+    }
+
+    // Returns true if the throw of value `j` to hand `k`, as the first throw
+    // from the current starting state, is part of our shard of the search.
+    protected boolean isInShard(int j, int k) {
+        long ordinal = start_ordinal - 1;
+        if (ordinal != shard_first_ordinal && ordinal != shard_last_ordinal)
+            return true;
+
+        // number of choices before this one
+        int pos = frame_pos[0];
+        int choice = 0;
+        for (int j2 = 1; j2 <= j; ++j2) {
+            for (int k2 = 0; k2 < (j2 == j ? k : hands); ++k2) {
+                if (holes[k2][pos + j2] != 0)
+                    ++choice;
+            }
+        }
+
+        if (ordinal == shard_first_ordinal && choice < shard_skip)
+            return false;
+        if (ordinal == shard_last_ordinal && choice >= shard_stop)
+            return false;
+        return true;
+    }
+
+    // Estimates the number of throws the search will try from the top stack
+    // frame, which has no throw made in it yet, by following one random path
+    // down the tree. The search is left as it was found.
+    protected double probeSearch(Random rng) {
+        int base = depth - 1;
+        int min_throw = frame_throw[base];
+        int min_hand = frame_to[base];
+        double estimate = 0.0;
+        double weight = 1.0;
+
+        while (true) {
+            int d = depth - 1;
+            int pos = frame_pos[d];
+
+            int num = 0;
+            int k = frame_to[d];
+            for (int j = frame_throw[d]; j <= ht; ++j) {
+                for ( ; k < hands; ++k) {
+                    if (holes[k][pos + j] != 0)
+                        ++num;
+                }
+                k = 0;
+            }
+            if (num == 0)
+                break;
+
+            weight *= num;
+            estimate += weight;
+
+            // find the chosen throw
+            int c = rng.nextInt(num);
+            int j = frame_throw[d];
+            k = frame_to[d];
+            findthrow:
+            for ( ; j <= ht; ++j) {
+                for ( ; k < hands; ++k) {
+                    if (holes[k][pos + j] != 0 && c-- == 0)
+                        break findthrow;
+                }
+                k = 0;
+            }
+
+            makeThrow(d, j, k);
+            if (depth == d + 1)
+                break;  // no frame pushed, so the path ends here
+        }
+
+        unwindStack(base, min_throw, min_hand);
+        return estimate;
+    }
+
+    // Takes back everything done in stack frame `d` and the frames above it,
+    // leaving frame `d` as it was when it was pushed, with the given minimum
+    // throw and hand. If `d` is -1 the whole stack is emptied.
+    protected void unwindStack(int d, int min_throw, int min_hand) {
+        while (depth > 0 && depth > d) {
+            int top = depth - 1;
+            if (frame_tried[top])
+                ++holes[frame_to[top]][frame_pos[top] + frame_throw[top]];
+
+            if (top == d) {
+                frame_throw[d] = min_throw;
+                frame_to[d] = min_hand;
+                frame_tried[d] = false;
+                return;
+            }
+            ++throws_left[frame_pos[top]][frame_hand[top]];
+            --depth;
+        }
+    }
+
+    // Counts the patterns that nextPattern() would find, without generating
+    // them.
+    //
+    // Every pattern is a closed walk in the state graph, so we can count them
+    // by dynamic programming over the graph's vertices. For each starting
+    // state the walks are made of loops that return to the starting state
+    // only at their end, and then:
+    //   - by default each pattern is a single loop through states greater
+    //     than the starting state
+    //   - with -f a pattern is a cyclic sequence of such loops, listed in only
+    //     one rotation, so we count necklaces of loops
+    //   - with -rot the other states aren't restricted, and each sequence of
+    //     loops (-f) or single loop is a separate pattern.
+    protected BigInteger countPatterns() throws JuggleExceptionInterrupted {
+        SiteswapStateGraph graph = new SiteswapStateGraph(this, groundflag == 1);
+        int ground = graph.getStateIndex(ground_state);
+        int len_max = l_max / rhythm_period;
+        BigInteger total = BigInteger.ZERO;
+
+        for (int s0 = 0; s0 < graph.getNumberOfStates(); ++s0) {
+            if (Thread.interrupted())
+                throw new JuggleExceptionInterrupted();
+            if ((groundflag == 1 && s0 != ground) || (groundflag == 2 && s0 == ground))
+                continue;
+
+            BigInteger[] loops = countLoops(graph, s0, len_max);
+            BigInteger[] walks = (fullflag == 0 ? countWalks(loops) : null);
+
+            for (int l = l_min; l <= l_max; l += rhythm_period) {
+                int len = l / rhythm_period;
+
+                if (fullflag != 0)
+                    total = total.add(loops[len]);
+                else if (rotflag != 0)
+                    total = total.add(walks[len]);
+                else
+                    total = total.add(countNecklaces(loops, walks, len));
+            }
+        }
+
+        return total;
+    }
+
+    // Returns the number of walks of each length (in rhythm periods) from
+    // vertex `s0` back to itself, that don't pass through `s0` along the way.
+    // Unless we're listing all rotations, the walks also stay above `s0`.
+    protected BigInteger[] countLoops(SiteswapStateGraph graph, int s0, int len_max) {
+        int num = graph.getNumberOfStates();
+        int lowest = (rotflag == 0 ? s0 : 0);
+        BigInteger[] loops = new BigInteger[len_max + 1];
+        loops[0] = BigInteger.ZERO;
+
+        // try it with longs first, since that's much faster
+        try {
+            long[] current = new long[num];
+            long[] next = new long[num];
+            current[s0] = 1;
+
+            for (int len = 1; len <= len_max; ++len) {
+                for (int i = lowest; i < num; ++i) {
+                    if (current[i] == 0)
+                        continue;
+
+                    int[] succ = graph.succ[i];
+                    long[] mult = graph.mult[i];
+
+                    for (int e = 0; e < succ.length; ++e) {
+                        int j = succ[e];
+                        if (j >= lowest)
+                            next[j] = Math.addExact(next[j], Math.multiplyExact(current[i], mult[e]));
+                    }
+                }
+
+                loops[len] = BigInteger.valueOf(next[s0]);
+                next[s0] = 0;
+
+                long[] temp = current;
+                current = next;
+                next = temp;
+                Arrays.fill(next, 0);
+            }
+
+            return loops;
+        } catch (ArithmeticException ae) {
+        }
+
+        // overflow, so start over
+        BigInteger[] current = new BigInteger[num];
+        BigInteger[] next = new BigInteger[num];
+        current[s0] = BigInteger.ONE;
+
+        for (int len = 1; len <= len_max; ++len) {
+            for (int i = lowest; i < num; ++i) {
+                if (current[i] == null)
+                    continue;
+
+                int[] succ = graph.succ[i];
+                long[] mult = graph.mult[i];
+
+                for (int e = 0; e < succ.length; ++e) {
+                    int j = succ[e];
+                    if (j < lowest)
+                        continue;
+
+                    BigInteger ways = (mult[e] == 1 ? current[i] :
+                                    current[i].multiply(BigInteger.valueOf(mult[e])));
+                    next[j] = (next[j] == null ? ways : next[j].add(ways));
+                }
+            }
+
+            loops[len] = (next[s0] == null ? BigInteger.ZERO : next[s0]);
+            next[s0] = null;
+
+            BigInteger[] temp = current;
+            current = next;
+            next = temp;
+            Arrays.fill(next, null);
+        }
+
+        return loops;
+    }
+
+    // Returns the number of sequences of loops with each total length.
+    protected static BigInteger[] countWalks(BigInteger[] loops) {
+        BigInteger[] walks = new BigInteger[loops.length];
+        walks[0] = BigInteger.ONE;
+
+        for (int len = 1; len < loops.length; ++len) {
+            walks[len] = BigInteger.ZERO;
+            for (int m = 1; m <= len; ++m)
+                walks[len] = walks[len].add(loops[m].multiply(walks[len - m]));
+        }
+
+        return walks;
+    }
+
+    // Returns the number of distinct cyclic sequences of loops with total
+    // length `len`, using Burnside's lemma on the rotations of the beats.
+    protected static BigInteger countNecklaces(BigInteger[] loops, BigInteger[] walks, int len) {
+        BigInteger sum = BigInteger.ZERO;
 
-        int num = 0;
+        for (int d = 1; d <= len; ++d) {
+            if (len % d != 0)
+                continue;
 
-        int j = min_to;  // ensures each state is generated only once
-        for (int i = min_value; i < ht; ++i) {
-            for ( ; j < hands; ++j) {
-                if (state[0][j][i] < rhythm[0][j][i]) {
-                    ++state[0][j][i];
-                    if (i < l_target || state[0][j][i] <= state[0][j][i - l_target])
-                        num += findPatterns(balls_placed + 1, i, j);  // next ball
-                    --state[0][j][i];
-                }
+            // number of ways to cover a circle of `d` beats with loops
+            BigInteger cover = BigInteger.ZERO;
+            for (int m = 1; m <= d; ++m) {
+                cover = cover.add(loops[m].multiply(walks[d - m])
+                                          .multiply(BigInteger.valueOf(m)));
             }
-            j = 0;
+
+            // number of rotations that repeat with period `d`
+            sum = sum.add(cover.multiply(BigInteger.valueOf(totient(len / d))));
         }
 
-        return num;
+        return sum.divide(BigInteger.valueOf(len));
     }
 
-    // Generates cycles in the state graph, starting from some given vertex.
-    //
-    // Arguments:
-    // int pos;              // beat number in pattern that we're constructing
-    // int min_throw;        // lowest we can throw this time
-    // int min_hand;         // lowest hand we can throw to this time
-    // int outputpos;        // current position in the char[] output buffer
-    //
-    // Returns the number of cycles found.
-    protected int findCycles(int pos, int min_throw, int min_hand, int outputpos)
-                    throws JuggleExceptionUser, JuggleExceptionInternal {
-        if (Thread.interrupted())
-            throw new JuggleExceptionInterrupted();
-
-        //System.out.println("starting findCycles with pos=" + pos + ", min_throw="
-        //        + min_throw + ", min_hand=" + min_hand);
+    // Euler's totient function
+    protected static int totient(int m) {
+        int result = m;
 
-        // do a time check
-        if (max_time > 0) {
-            if (loop_counter++ > loop_counter_max) {
-                loop_counter = 0;
-                if ((System.currentTimeMillis() - start_time_millis) > max_time_millis) {
-                    String template = guistrings.getString("Generator_timeout");
-                    Object[] arguments = { new Integer((int)max_time) };
-                    throw new JuggleExceptionDone(MessageFormat.format(template, arguments));
-                }
+        for (int p = 2; p * p <= m; ++p) {
+            if (m % p == 0) {
+                while (m % p == 0)
+                    m /= p;
+                result -= result / p;
             }
         }
+        if (m > 1)
+            result -= result / m;
 
-        // find the next hand with something to throw
-        int h = 0;
-
-        while (throws_left[pos][h] == 0) {
-            ++h;
+        return result;
+    }
 
-            if (h < hands)
+    // Chooses `random_num` patterns at random, each one uniformly from the
+    // patterns that nextPattern() would find. (Patterns may repeat.)
+    //
+    // We count the candidates with the state graph as in countPatterns(),
+    // and then build each pattern one rhythm period at a time, choosing
+    // among the ways to complete it. The graph doesn't know about filters
+    // that look at the pattern as a whole, or about listing only one rotation
+    // of composite patterns, so each candidate goes through the usual checks
+    // and is rejected if it fails. This keeps the distribution uniform.
+    protected int samplePatterns() throws JuggleExceptionUser, JuggleExceptionInternal {
+        SiteswapStateGraph graph = new SiteswapStateGraph(this, groundflag == 1);
+        Random rng = (random_seeded ? new Random(random_seed) : new Random());
+        int ground = graph.getStateIndex(ground_state);
+        int len_min = l_min / rhythm_period;
+        int len_max = l_max / rhythm_period;
+
+        // number of candidates for each starting state and length
+        BigInteger[][] candidates = new BigInteger[graph.getNumberOfStates()][];
+        BigInteger total = BigInteger.ZERO;
+
+        for (int s0 = 0; s0 < graph.getNumberOfStates(); ++s0) {
+            if (Thread.interrupted())
+                throw new JuggleExceptionInterrupted();
+            if ((groundflag == 1 && s0 != ground) || (groundflag == 2 && s0 == ground))
                 continue;
 
-            // Done with this beat. Do some checks to see if things are valid
-            // so far.
+            BigInteger[] loops = countLoops(graph, s0, len_max);
+            candidates[s0] = (fullflag == 0 ? countWalks(loops) : loops);
+            for (int len = len_min; len <= len_max; ++len)
+                total = total.add(candidates[s0][len]);
+        }
 
-            // output the throw as a string so we can test for exclusions
-            int outputpos_new = outputBeat(pos, output, outputpos);
+        if (total.signum() == 0)
+            return 0;
 
-            if (!areThrowsValid(pos, outputpos_new))
-                return 0;
-            if (mpflag != 0 && !isMultiplexingValid(pos))
-                return 0;
+        int num = 0;
+        int tries = 0;
+        BigInteger[][] ways = null;
+        int ways_s0 = -1;
+        int ways_len = -1;
+
+        while (num < random_num) {
+            if (Thread.interrupted())
+                throw new JuggleExceptionInterrupted();
+            if (max_time > 0 && (System.currentTimeMillis() - start_time_millis) > max_time_millis) {
+                String template = guistrings.getString("Generator_timeout");
+                Object[] arguments = { new Integer((int)max_time) };
+                throw new JuggleExceptionDone(MessageFormat.format(template, arguments));
+            }
+            if (++tries > random_tries_max) {
+                String template = guistrings.getString("Generator_random_rejected");
+                Object[] arguments = { new Integer(random_tries_max) };
+                throw new JuggleExceptionDone(MessageFormat.format(template, arguments));
+            }
 
-            calculateState(pos + 1);
-            if (!isStateValid(pos + 1))
-                return 0;
+            // pick the starting state and length
+            BigInteger r = randomBelow(total, rng);
+            int s0 = 0;
+            int len = len_min;
 
-            if (Constants.DEBUG_GENERATOR) {
-                StringBuffer sb = new StringBuffer();
-                for (int t = 0; t < pos; ++t)
-                    sb.append(".  ");
-                for (int t = outputpos; t < outputpos_new; ++t)
-                    sb.append(output[t]);
-                System.out.println(sb.toString());
+            findstart:
+            for (s0 = 0; s0 < candidates.length; ++s0) {
+                if (candidates[s0] == null)
+                    continue;
+                for (len = len_min; len <= len_max; ++len) {
+                    if (r.compareTo(candidates[s0][len]) < 0)
+                        break findstart;
+                    r = r.subtract(candidates[s0][len]);
+                }
             }
 
-            // move to next beat
-            ++pos;
-
-            if (pos < l_target) {
-                startBeat(pos);
-                return findCycles(pos, 1, 0, outputpos_new);
+            if (s0 != ways_s0 || len != ways_len) {
+                ways = countCompletions(graph, s0, len);
+                ways_s0 = s0;
+                ways_len = len;
             }
 
-            // at the target length; does the pattern work?
-            if (compareStates(state[0], state[l_target]) == 0
-                        && isPatternValid(outputpos_new)) {
-                if (Constants.DEBUG_GENERATOR) {
-                    StringBuffer sb = new StringBuffer();
-                    for (int t = 0; t < outputpos_new; ++t)
-                        sb.append(output[t]);
-                    System.out.println("got a pattern: " + sb.toString());
-                }
-                if (numflag != 2)
-                    outputPattern(outputpos_new);
-                return 1;
-            } else
-                return 0;
+            if (!makeRandomPattern(graph, ways, s0, len, rng))
+                continue;
+
+            tries = 0;
+            if (++num < random_num && max_num >= 0 && num >= max_num) {
+                String template = guistrings.getString("Generator_spacelimit");
+                Object[] arguments = { new Integer(max_num) };
+                throw new JuggleExceptionDone(MessageFormat.format(template, arguments));
+            }
         }
 
-        // Have a throw to assign. Iterate over all possibilities.
+        return num;
+    }
+
+    // Returns the number of ways to get from each vertex back to `s0` in each
+    // number of rhythm periods up to `len`, following the same rules as
+    // countLoops().
+    protected BigInteger[][] countCompletions(SiteswapStateGraph graph, int s0, int len) {
+        int num = graph.getNumberOfStates();
+        int lowest = (rotflag == 0 ? s0 : 0);
+        BigInteger[][] ways = new BigInteger[len + 1][num];
+
+        for (int k = 0; k <= len; ++k)
+            Arrays.fill(ways[k], BigInteger.ZERO);
+        ways[0][s0] = BigInteger.ONE;
+
+        for (int k = 1; k <= len; ++k) {
+            for (int i = lowest; i < num; ++i) {
+                int[] succ = graph.succ[i];
+                long[] mult = graph.mult[i];
+                BigInteger sum = BigInteger.ZERO;
+
+                for (int e = 0; e < succ.length; ++e) {
+                    BigInteger w = ways[k - 1][succ[e]];
+                    if (w.signum() != 0)
+                        sum = sum.add(w.multiply(BigInteger.valueOf(mult[e])));
+                }
+                ways[k][i] = sum;
+            }
 
-        --throws_left[pos][h];
+            if (fullflag != 0 && k < len)
+                ways[k][s0] = BigInteger.ZERO;  // can't pass through s0
+        }
 
-        int slot = throws_left[pos][h];
-        int k = min_hand;
-        int num = 0;
-        //System.out.println("check 1: k=" + k + ", min_throw=" + min_throw + ", slot=" + slot);
+        return ways;
+    }
 
-        for (int j = min_throw; j <= ht; ++j) {
-            int ti = pos + j;  // target index
+    // Builds a random pattern of `len` rhythm periods from vertex `s0`, and
+    // outputs it if it passes the same checks as in extendPattern().
+    //
+    // Returns true if the pattern was output.
+    protected boolean makeRandomPattern(SiteswapStateGraph graph, BigInteger[][] ways,
+                    int s0, int len, Random rng) throws JuggleExceptionInternal {
+        l_target = len * rhythm_period;
 
-            for (; k < hands; ++k) {
-                if (holes[k][ti] == 0)  // can we throw to position?
-                    continue;
+        int[][] st = graph.getState(s0);
+        for (int i = 0; i < hands; ++i)
+            for (int j = 0; j < ht; ++j)
+                state[0][i][j] = st[i][j];
+
+        if (!startPattern())
+            return false;
+        if (numflag != 2 && sequenceflag)
+            findStartEnd();
+
+        int vertex = s0;
+        int outputpos = 0;
+
+        for (int k = len; k > 0; --k) {
+            // choose the next vertex, then one of the ways to get there
+            BigInteger r = randomBelow(ways[k][vertex], rng);
+            int[] succ = graph.succ[vertex];
+            long[] mult = graph.mult[vertex];
+            int e = 0;
+
+            for (; e < succ.length; ++e) {
+                BigInteger w = ways[k - 1][succ[e]];
+                BigInteger c = w.multiply(BigInteger.valueOf(mult[e]));
+                if (r.compareTo(c) < 0) {
+                    r = r.divide(w);
+                    break;
+                }
+                r = r.subtract(c);
+            }
 
-                --holes[k][ti];
+            int pos = (len - k) * rhythm_period;
+            graph.getEdgeThrows(vertex, succ[e], r.longValue(), pos);
 
-                throw_to[pos][h][slot] = k;
-                throw_value[pos][h][slot] = j;
+            for (int b = pos; b < pos + rhythm_period; ++b) {
+                int outputpos_new = outputBeat(b, output, outputpos);
 
-                if (slot != 0)
-                    num += findCycles(pos, j, k, outputpos);  // enforces ordering on multiplexed throws
-                else
-                    num += findCycles(pos, 1, 0, outputpos);
+                if (!areThrowsValid(b, outputpos_new))
+                    return false;
+                if (mpflag != 0 && !isMultiplexingValid(b))
+                    return false;
 
-                ++holes[k][ti];
+                calculateState(b + 1);
+                if (!isStateValid(b + 1))
+                    return false;
 
-                if (max_num >= 0 && num >= max_num) {
-                    String template = guistrings.getString("Generator_spacelimit");
-                    Object[] arguments = { new Integer(max_num) };
-                    throw new JuggleExceptionDone(MessageFormat.format(template, arguments));
-                }
+                outputpos = outputpos_new;
             }
 
-            k = 0;
+            vertex = succ[e];
         }
-        //System.out.println("check 2");
 
-        ++throws_left[pos][h];
-        return num;
+        if (!isPatternValid(outputpos))
+            return false;
+        if (numflag != 2)
+            outputPattern(outputpos);
+        return true;
+    }
+
+    // Returns a random number in the range [0, bound).
+    protected static BigInteger randomBelow(BigInteger bound, Random rng) {
+        BigInteger r;
+        do {
+            r = new BigInteger(bound.bitLength(), rng);
+        } while (r.compareTo(bound) >= 0);
+        return r;
     }
 
     // Calculates the state based on previous beat's state and throws.
@@ -851,24 +2120,247 @@ public class SiteswapGenerator extends Generator {
         }
 
         if (pos % rhythm_period == 0) {
-            int cs = compareStates(state[0], state[pos]);
+            int cs = state_cmp = compareStates(state[0], state[pos]);
 
             if (fullflag != 0 && pos != l_target && cs == 0)  // intersection
                 return false;
 
             if (rotflag == 0 && cs == 1)  // bad rotation
                 return false;
+
+            if (rotflag == 0 && canonical_jugglers) {
+                findJugglerKeys(pos);
+
+                // bad juggler labeling
+                if (canonical_states && !isStateCanonical(pos))
+                    return false;
+            }
         }
 
-        if (fullflag == 2) {  // list only simple loops?
-            for (int j = 1; j < pos; ++j) {
-                if ((pos - j) % rhythm_period == 0) {
-                    if (compareStates(state[j], state[pos]) == 0)
-                        return false;
+        if (fullflag == 2 && !isStateNew(pos))  // list only simple loops?
+            return false;
+
+        return true;
+    }
+
+    // Checks that state[pos] hasn't come up earlier in the pattern at the same
+    // point in the rhythm (apart from state[0], checked above).
+    //
+    // Rather than comparing against every earlier state, we keep the beats
+    // so far in a hash table, prime_table[], with linear probing. The states
+    // are checked in order and only ever thrown away from the end, so the
+    // table is used like a stack: Each beat's entry is removed by just
+    // clearing it, since everything added after it is gone already.
+    protected boolean isStateNew(int pos) {
+        forgetStates(pos);
+
+        int[][] st = state[pos];
+        long key = hashState(st, pos % rhythm_period);
+        int mask = prime_table.length - 1;
+        int slot = (int)(key >>> 32) & mask;
+
+        for (int b; (b = prime_table[slot]) != 0; slot = (slot + 1) & mask) {
+            // different states can have the same key, so check
+            if (prime_key[b] == key && (pos - b) % rhythm_period == 0
+                        && compareStates(state[b], st) == 0)
+                return false;
+        }
+
+        prime_table[slot] = pos;
+        prime_slot[pos] = slot;
+        prime_key[pos] = key;
+        prime_top = pos;
+        return true;
+    }
+
+    // Removes the beats at or after `pos` from prime_table[], as they're left
+    // over from earlier in the search.
+    protected void forgetStates(int pos) {
+        while (prime_top >= pos) {
+            prime_table[prime_slot[prime_top]] = 0;
+            --prime_top;
+        }
+    }
+
+    // Returns a hash of state `st` at beat `phase` in the rhythm.
+    protected long hashState(int[][] st, int phase) {
+        long key = phase;
+        for (int i = 0; i < hands; ++i) {
+            for (int j = 0; j < ht; ++j)
+                key = (key + st[i][j]) * 0x9e3779b97f4a7c15L;
+        }
+        return key;
+    }
+
+    // Checks that no relabeling of the jugglers in state[pos] is less than the
+    // starting state.
+    //
+    // Of all the ways of labeling the jugglers in a passing pattern, we only
+    // list one: The one whose starting state is least, ties being broken in
+    // isJugglerLabelingBest(). Checking each state as it's found lets us
+    // avoid searching the other labelings at all.
+    //
+    // This doesn't work when listing one rotation of each pattern without
+    // intersections (the default). A relabeling with a lesser state may
+    // still never be listed, if its least state occurs more than once, and
+    // we can't know that until the pattern is done.
+    protected boolean isStateCanonical(int pos) {
+        return (compareKeys(state_keys[pos], state_order[pos], state_keys[0], null) >= 0);
+    }
+
+    // Finds the relabelings of the jugglers (other than the identity) that
+    // leave state[0] unchanged, for isLabelingValid().
+    protected void findStabilizer() {
+        stab_hand.clear();
+        stab_hand_inv.clear();
+        for (int m = 0; m < jugglers; ++m)
+            perm_used[m] = false;
+        addStabilizer(0);
+
+        if (stab_diff.length < stab_hand.size())
+            stab_diff = new int[2 * stab_hand.size()];
+        for (int p = 0; p < stab_hand.size(); ++p)
+            stab_diff[p] = Integer.MAX_VALUE;
+    }
+
+    protected void addStabilizer(int m) {
+        if (m == jugglers) {
+            if (setRelabeling()) {
+                stab_hand.add(perm_hand.clone());
+                stab_hand_inv.add(perm_hand_inv.clone());
+            }
+            return;
+        }
+
+        for (int t = 0; t < jugglers; ++t) {
+            if (perm_used[t] || state_keys[0][m] != state_keys[0][t])
+                continue;
+
+            perm_used[t] = true;
+            perm_juggler[m] = t;
+            addStabilizer(m + 1);
+            perm_used[t] = false;
+        }
+    }
+
+    // Checks the throws on beat `pos` against those of each relabeling found
+    // by findStabilizer(). Those relabelings start from state[0] as well, and
+    // we keep the greatest (see isJugglerLabelingBest()), so the pattern can
+    // be ruled out as soon as it falls behind one of them.
+    //
+    // stab_diff[p] is the first beat where the pattern is greater than
+    // relabeling p; values at or after `pos` are left over from earlier in
+    // the search.
+    protected boolean isLabelingValid(int pos) {
+        for (int p = 0; p < stab_hand.size(); ++p) {
+            if (stab_diff[p] < pos)
+                continue;
+
+            int res = compareThrows(pos, pos, stab_hand.get(p), stab_hand_inv.get(p));
+            if (res < 0)
+                return false;
+            stab_diff[p] = (res > 0 ? pos : Integer.MAX_VALUE);
+        }
+        return true;
+    }
+
+    // Puts into state_keys[pos][m] the hands of juggler m in state[pos], read
+    // in the order compareStates() uses, as a binary number. (With no
+    // multiplexing each slot holds at most one object.) Also sorts the
+    // jugglers by these keys into state_order[pos].
+    protected void findJugglerKeys(int pos) {
+        int[][] st = state[pos];
+        long[] keys = state_keys[pos];
+        int hpj = hands / jugglers;
+
+        for (int m = 0; m < jugglers; ++m) {
+            long key = 0L;
+            for (int j = (ht - 1); j >= 0; --j) {
+                for (int o = (hpj - 1); o >= 0; --o)
+                    key = (key << 1) | st[m * hpj + o][j];
+            }
+            keys[m] = key;
+        }
+
+        // compareStates() reads a state from the highest slot down, and
+        // within a slot from the highest hand down. So relabeling the jugglers
+        // by decreasing key gives the least state.
+        int[] order = state_order[pos];
+        for (int m = 0; m < jugglers; ++m) {
+            int k = m;
+            while (k > 0 && keys[order[k - 1]] < keys[m]) {
+                order[k] = order[k - 1];
+                --k;
+            }
+            order[k] = m;
+        }
+    }
+
+    // Compares two states given by juggler keys, in the same way as
+    // compareStates(). Juggler m of the first state is juggler order1[m] in
+    // keys1 (or juggler m if order1 is null), and the same for the second.
+    protected int compareKeys(long[] keys1, int[] order1, long[] keys2, int[] order2) {
+        int hpj = hands / jugglers;
+        int high_slot = -1;
+        int high_m = -1;
+
+        // find the first place they differ
+        for (int m = (jugglers - 1); m >= 0; --m) {
+            long diff = keys1[order1 == null ? m : order1[m]] ^
+                        keys2[order2 == null ? m : order2[m]];
+            if (diff != 0L) {
+                int slot = (63 - Long.numberOfLeadingZeros(diff)) / hpj;
+                if (slot > high_slot) {
+                    high_slot = slot;
+                    high_m = m;
                 }
             }
         }
+        if (high_m < 0)
+            return 0;
+
+        long mask = (1L << hpj) - 1L;
+        long k1 = (keys1[order1 == null ? high_m : order1[high_m]] >>> (high_slot * hpj)) & mask;
+        long k2 = (keys2[order2 == null ? high_m : order2[high_m]] >>> (high_slot * hpj)) & mask;
+        return (k1 > k2 ? 1 : -1);
+    }
+
+    // Checks whether the pattern so far can still be the one rotation of a
+    // composite pattern that check #3 in isPatternValid() keeps.
+    //
+    // Think of the pattern as a word whose letters are its loops (returns to
+    // the starting state), ordered as in compareLoops(). The rotation kept is
+    // the greatest one, so the word must be a necklace, and every prefix of a
+    // necklace is a prenecklace. Whether a prefix of loops is a prenecklace
+    // can be tracked one loop at a time (the Fredricksen-Kessler-Maiorana
+    // method): `loop_period[t]` is the period of the first t+1 loops, and
+    // each new loop must be no greater than the one a period before it.
+    //
+    // This is called when the state at position `pos` has been filled in.
+    protected boolean isLoopValid(int pos) {
+        int t = loop_count[pos - 1];  // the loop we're in
+        loop_count[pos] = t;
+
+        // isStateValid() has just compared state[pos] with state[0]
+        if (pos == l_target || pos % rhythm_period != 0 || state_cmp != 0)
+            return true;
+
+        // loop `t` is done
+        if (t == 0)
+            loop_period[0] = 1;
+        else {
+            int p = loop_period[t - 1];
+            int res = compareLoops(loop_start[t], loop_start[t - p], null, null);
+            if (res > 0) {
+                if (Constants.DEBUG_GENERATOR)
+                    System.out.println("   pattern invalid: bad rotation of prefix");
+                return false;
+            }
+            loop_period[t] = (res == 0 ? p : t + 1);
+        }
 
+        loop_count[pos] = t + 1;
+        loop_start[t + 1] = pos;
         return true;
     }
 
@@ -1037,7 +2529,7 @@ public class SiteswapGenerator extends Generator {
             for (int i = 1; i < l_target; ++i) {
                 if (i % rhythm_period == 0) {  // can we compare states?
                     if (compareStates(state[0], state[i]) == 0) {
-                        if (compareRotations(0, i) < 0) {
+                        if (compareRotations(0, i, null, null) < 0) {
                             if (Constants.DEBUG_GENERATOR)
                                 System.out.println("   pattern invalid: bad rotation");
                             return false;
@@ -1083,10 +2575,15 @@ public class SiteswapGenerator extends Generator {
         }
 
         // check #5: See if there is a better permutation of jugglers.
-        //
-        // This algorithm is not guaranteed to eliminate all permuted duplicates,
-        // but will do so in the vast majority of cases.
-        if (jugglers > 1 && !juggler_permutations) {
+        if (canonical_jugglers) {
+            if (!isJugglerLabelingBest()) {
+                if (Constants.DEBUG_GENERATOR)
+                    System.out.println("   pattern invalid: bad juggler permutation");
+                return false;
+            }
+        } else if (jugglers > 1 && !juggler_permutations) {
+            // This algorithm is not guaranteed to eliminate all permuted
+            // duplicates, but will do so in the vast majority of cases.
             for (int m = 1; m <= (jugglers - 1); ++m) {
                 // compare juggler m against juggler (m+1)
                 for (int i = 0; i < l_target; ++i)
@@ -1156,13 +2653,195 @@ public class SiteswapGenerator extends Generator {
         return true;
     }
 
+    // Checks that no other labeling of the jugglers is listed in place of
+    // this one: Either because it starts from a lesser state, or starts from
+    // state[0] and is greater, comparing them the same way as the rotations
+    // in check #3.
+    protected boolean isJugglerLabelingBest() {
+        int last = (rotflag == 0 ? l_target : 1);
+        int least = -1;  // beat with the least relabeled state below state[0]
+        int least_count = 0;
+
+        // beats where some relabeling of the state is at most state[0]
+        num_perm_beats = 0;
+        for (int k = 0; k < last; k += rhythm_period) {
+            long[] keys = state_keys[k];
+            int[] order = state_order[k];
+            int cs = compareKeys(keys, order, state_keys[0], null);
+            if (cs <= 0)
+                perm_beats[num_perm_beats++] = k;
+
+            if (cs < 0) {
+                // only happens if !canonical_states
+                int cl = (least < 0 ? -1 : compareKeys(keys, order, perm_least, null));
+                if (cl < 0) {
+                    least = k;
+                    least_count = 1;
+                    for (int m = 0; m < jugglers; ++m)
+                        perm_least[m] = keys[order[m]];
+                } else if (cl == 0)
+                    ++least_count;
+            }
+        }
+
+        for (int m = 0; m < jugglers; ++m)
+            perm_used[m] = false;
+
+        if (least >= 0) {
+            // If the least relabeled state only comes up once, the pattern
+            // relabeled to get it is listed from there. Otherwise we need to
+            // look harder.
+            if (least_count == 1)
+                return false;
+            return tryAllRelabelings(0);
+        }
+
+        for (int b = 0; b < num_perm_beats; ++b) {
+            int k = perm_beats[b];
+
+            if (fullflag == 1) {
+                // When state[k] repeats, a relabeling starting at beat k
+                // returns to state[0] part way through, so it isn't listed.
+                // (Any repeat is also in perm_beats[].)
+                boolean repeated = false;
+                for (int b2 = 0; b2 < num_perm_beats; ++b2) {
+                    if (b2 != b && Arrays.equals(state_keys[perm_beats[b2]], state_keys[k])) {
+                        repeated = true;
+                        break;
+                    }
+                }
+                if (repeated)
+                    continue;
+            }
+
+            if (!tryRelabelings(k, 0))
+                return false;
+        }
+        return true;
+    }
+
+    // Tries each relabeling of the jugglers that takes state[pos] to state[0],
+    // after juggler m. Returns false if the pattern relabeled and rotated to
+    // start at beat `pos` is greater than the pattern itself.
+    protected boolean tryRelabelings(int pos, int m) {
+        if (m == jugglers) {
+            if (!setRelabeling())
+                return true;  // rotations are handled by check #3
+            if (fullflag == 0)
+                return (compareRotations(0, pos, perm_hand, perm_hand_inv) >= 0);
+
+            // without intersections each pattern is a single loop, so
+            // compare throw by throw
+            for (int i = 0, i2 = pos; i < l_target; ++i) {
+                int res = compareThrows(i, i2, perm_hand, perm_hand_inv);
+                if (res != 0)
+                    return (res > 0);
+                if (++i2 == l_target)
+                    i2 = 0;
+            }
+            return true;
+        }
+
+        for (int t = 0; t < jugglers; ++t) {
+            if (perm_used[t] || state_keys[pos][m] != state_keys[0][t])
+                continue;
+
+            perm_used[t] = true;
+            perm_juggler[m] = t;
+            boolean result = tryRelabelings(pos, m + 1);
+            perm_used[t] = false;
+            if (!result)
+                return false;
+        }
+        return true;
+    }
+
+    // Tries every relabeling of the jugglers after juggler m, for when
+    // isStateCanonical() couldn't be used during the search. Returns false if
+    // one of them is listed, and either starts from a lesser state or is
+    // greater than the pattern itself.
+    //
+    // Only the beats in perm_beats[] can have a relabeled state at most
+    // state[0], so we only need to look at those.
+    protected boolean tryAllRelabelings(int m) {
+        if (m == jugglers) {
+            if (!setRelabeling())
+                return true;
+
+            // find the least state in the relabeled pattern
+            int least = -1;
+            int count = 0;
+            for (int b = 0; b < num_perm_beats; ++b) {
+                int k = perm_beats[b];
+                int cs = (least < 0 ? -1 : compareKeys(state_keys[k], perm_juggler_inv,
+                                                       state_keys[least], perm_juggler_inv));
+                if (cs < 0) {
+                    least = k;
+                    count = 1;
+                } else if (cs == 0)
+                    ++count;
+            }
+
+            int cs = compareKeys(state_keys[least], perm_juggler_inv, state_keys[0], null);
+            if (cs > 0 || (fullflag != 0 && count > 1))
+                return true;  // relabeled pattern isn't listed from a state <= state[0]
+            if (cs < 0)
+                return false;
+
+            for (int b = 0; b < num_perm_beats; ++b) {
+                int k = perm_beats[b];
+                if (compareKeys(state_keys[k], perm_juggler_inv, state_keys[0], null) == 0 &&
+                            compareRotations(0, k, perm_hand, perm_hand_inv) < 0)
+                    return false;
+            }
+            return true;
+        }
+
+        for (int t = 0; t < jugglers; ++t) {
+            if (perm_used[t])
+                continue;
+
+            perm_used[t] = true;
+            perm_juggler[m] = t;
+            boolean result = tryAllRelabelings(m + 1);
+            perm_used[t] = false;
+            if (!result)
+                return false;
+        }
+        return true;
+    }
+
+    // Fills in the relabeling of the hands (and its inverse) from the one
+    // in perm_juggler[]. Returns false if it's the identity.
+    protected boolean setRelabeling() {
+        boolean identity = true;
+        for (int i = 0; i < jugglers; ++i) {
+            if (perm_juggler[i] != i)
+                identity = false;
+            perm_juggler_inv[perm_juggler[i]] = i;
+        }
+        if (identity)
+            return false;
+
+        int hpj = hands / jugglers;
+        for (int i = 0; i < hands; ++i) {
+            perm_hand[i] = perm_juggler[i / hpj] * hpj + (i % hpj);
+            perm_hand_inv[perm_hand[i]] = i;
+        }
+        return true;
+    }
+
     // Compares two rotations of the same pattern.
     //
+    // If `perm` is not null then the second rotation is of the pattern with
+    // hand i relabeled as perm[i], and `perm_inv` is the inverse relabeling.
+    //
     // This method assumes the throws are comparable, i.e., that pos1 is
     // congruent to pos2 mod rhythm_period
-    protected int compareRotations(int pos1, int pos2) {
+    protected int compareRotations(int pos1, int pos2, int[] perm, int[] perm_inv) {
         for (int i = 0; i < l_target; ) {
-            int res = compareLoops((pos1 + i) % l_target, (pos2 + i) % l_target);
+            int res = compareLoops((pos1 + i) % l_target, (pos2 + i) % l_target,
+                                   perm, perm_inv);
             if (res > 0)
                 return 1;
             else if (res < 0)
@@ -1177,9 +2856,11 @@ public class SiteswapGenerator extends Generator {
         return 0;
     }
 
-    // Compares two generated loops.
-    protected int compareLoops(int pos1, int pos2) {
-        int[][] state_start = state[pos1];
+    // Compares two generated loops, with `perm` and `perm_inv` as in
+    // compareRotations().
+    protected int compareLoops(int pos1, int pos2, int[] perm, int[] perm_inv) {
+        int[][] state_start1 = state[pos1];
+        int[][] state_start2 = state[pos2];  // relabels to state_start1
         int result = 0;
         int i = 0;
 
@@ -1191,11 +2872,11 @@ public class SiteswapGenerator extends Generator {
             ++i;
 
             if (result == 0)
-                result = compareThrows(pos1, pos2);
+                result = compareThrows(pos1, pos2, perm, perm_inv);
 
             if (i % rhythm_period == 0) {
-                int cs1 = compareStates(state[pos1 + 1], state_start);
-                int cs2 = compareStates(state[pos2 + 1], state_start);
+                int cs1 = compareStates(state[pos1 + 1], state_start1);
+                int cs2 = compareStates(state[pos2 + 1], state_start2);
 
                 if (cs1 == 0) {
                     if (cs2 == 0)
@@ -1207,18 +2888,20 @@ public class SiteswapGenerator extends Generator {
             }
 
             ++pos1;
-            ++pos2;
+            if (++pos2 == l_target)
+                pos2 = 0;  // relabeled rotations can wrap around
         }
     }
 
     // Compares two throws.
     //
     // Returns 1 if the throw at pos1 is greater than the throw at pos2,
-    // -1 if lesser, and 0 iff the throws are identical.
+    // -1 if lesser, and 0 iff the throws are identical. `perm` and `perm_inv`
+    // are as in compareRotations().
     //
     // This method assumes the throws are comparable, i.e., that pos1 is congruent
     // to pos2 mod rhythm_period.
-    protected int compareThrows(int pos1, int pos2) {
+    protected int compareThrows(int pos1, int pos2, int[] perm, int[] perm_inv) {
         int[][] value1 = throw_value[pos1];
         int[][] to1 = throw_to[pos1];
         int[][] value2 = throw_value[pos2];
@@ -1226,14 +2909,18 @@ public class SiteswapGenerator extends Generator {
         int[][] rhy = rhythm[pos1];  // same as pos2 since throws comparable
 
         for (int i = 0; i < hands; ++i) {
+            int i2 = (perm == null ? i : perm_inv[i]);
+
             for (int j = 0; j < rhy[i][0]; ++j) {
-                if (value1[i][j] > value2[i][j])
+                int t2 = (perm == null ? to2[i2][j] : perm[to2[i2][j]]);
+
+                if (value1[i][j] > value2[i2][j])
                     return 1;
-                else if (value1[i][j] < value2[i][j])
+                else if (value1[i][j] < value2[i2][j])
                     return -1;
-                else if (to1[i][j] > to2[i][j])
+                else if (to1[i][j] > t2)
                     return 1;
-                else if (to1[i][j] < to2[i][j])
+                else if (to1[i][j] < t2)
                     return -1;
             }
         }
@@ -1422,11 +3109,16 @@ public class SiteswapGenerator extends Generator {
     }
 
     protected void outputPattern(int outputpos) throws JuggleExceptionInternal {
+        target.writePattern(makeDisplayLine(outputpos), "siteswap",
+                            new String(output, 0, outputpos).trim());
+    }
+
+    // Returns the line of output for the pattern in the output[] buffer,
+    // including starting and ending sequences if needed.
+    protected String makeDisplayLine(int outputpos) {
         boolean is_excited = false;
         StringBuffer outputline = new StringBuffer(hands
                 * (2 * ground_state_length + l_target) * CHARS_PER_THROW + 10);
-        StringBuffer outputline2 = new StringBuffer(hands
-                * (2 * ground_state_length + l_target) * CHARS_PER_THROW + 10);
 
         if (groundflag != 1) {
             if (sequenceflag) {
@@ -1447,7 +3139,6 @@ public class SiteswapGenerator extends Generator {
         }
 
         outputline.append(output, 0, outputpos);
-        outputline2.append(output, 0, outputpos);
 
         if (groundflag != 1) {
             if (sequenceflag) {
@@ -1467,7 +3158,7 @@ public class SiteswapGenerator extends Generator {
             }
         }
 
-        target.writePattern(outputline.toString(), "siteswap", outputline2.toString().trim());
+        return outputline.toString();
     }
 
     // Adds a throw to a multiplexing filter slot (part of the multiplexing
@@ -1836,6 +3527,72 @@ public class SiteswapGenerator extends Generator {
         return res;
     }
 
+    // Returns the next line of output from the search, or null if there are no
+    // more patterns.
+    protected static String findNextLine(SiteswapGenerator gen) {
+        try {
+            int outputpos = gen.nextPattern();
+            return (outputpos < 0 ? null : gen.makeDisplayLine(outputpos));
+        } catch (JuggleExceptionUser jeu) {
+            // interrupted, since there's no time limit
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    protected static class PatternSpliterator implements Spliterator<String> {
+        protected SiteswapGenerator gen;
+
+        PatternSpliterator(SiteswapGenerator gen) {
+            this.gen = gen;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super String> action) {
+            String line = findNextLine(gen);
+            if (line == null)
+                return false;
+            action.accept(line);
+            return true;
+        }
+
+        // Splits off the first half of the starting states. This is only done
+        // before the search has begun, since the part split off has to come
+        // first in the encounter order.
+        @Override
+        public Spliterator<String> trySplit() {
+            long first = gen.start_first;
+            long last = gen.start_last;
+            if (gen.start_ordinal > first || last - first < 2)
+                return null;
+            long mid = first + (last - first) / 2;
+
+            SiteswapGenerator copy = new SiteswapGenerator();
+            try {
+                copy.initGenerator(gen.config_args);
+            } catch (JuggleExceptionUser jeu) {
+                return null;
+            }
+            copy.startSearch(first, mid);
+            copy.max_time = -1.0;
+            copy.checkpoint_file = null;
+            copy.shard_total = 0;
+            gen.startSearch(mid, last);
+            return new PatternSpliterator(copy);
+        }
+
+        // This counts starting states rather than patterns.
+        @Override
+        public long estimateSize() {
+            return gen.start_last - Math.max(gen.start_ordinal, gen.start_first);
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL | IMMUTABLE;
+        }
+    }
+
     //--------------------------------------------------------------------------
     // Static methods to run the generator from the command line
     //--------------------------------------------------------------------------
@@ -1864,12 +3621,105 @@ public class SiteswapGenerator extends Generator {
         try {
             SiteswapGenerator ssg = new SiteswapGenerator();
             ssg.initGenerator(args);
+            if (ssg.progressflag) {
+                ssg.setProgressListener(new GeneratorProgress.Listener() {
+                    @Override
+                    public void progressUpdate(GeneratorProgress progress) {
+                        System.err.println(progress.toString());
+                    }
+                });
+            }
             ssg.runGenerator(target);
+        } catch (JuggleExceptionInterrupted jei) {
+            // stopped by a shutdown hook, after saving a checkpoint
         } catch (Exception e) {
             System.out.println(errorstrings.getString("Error")+": "+e.getMessage());
         }
     }
 
+    // Puts together the output of a generator run split up with -shard, from
+    // one file per shard, to give the output of the whole run.
+    public static void runMergeCLI(Path[] files, PrintStream ps) {
+        try {
+            MessageFormat shardformat = new MessageFormat(guistrings.getString("Generator_shard"));
+            MessageFormat countformat = new MessageFormat(guistrings.getString("Generator_patterns_ne1"));
+            String count1 = guistrings.getString("Generator_patterns_1");
+
+            ArrayList<List<String>> shards = new ArrayList<List<String>>();
+            long count = 0;
+            boolean counted = true;
+
+            for (Path file : files) {
+                List<String> lines;
+                try {
+                    lines = Files.readAllLines(file);
+                } catch (IOException ioe) {
+                    String template = errorstrings.getString("Error_reading_file");
+                    Object[] arguments = { file.toString() };
+                    throw new JuggleExceptionUser(MessageFormat.format(template, arguments));
+                }
+
+                // the first line says which shard this is
+                int k = 0;
+                int total = 0;
+                try {
+                    if (lines.size() > 0) {
+                        Object[] header = shardformat.parse(lines.get(0));
+                        k = ((Number)header[0]).intValue();
+                        total = ((Number)header[1]).intValue();
+                    }
+                } catch (ParseException pe) {
+                }
+                if (shards.size() == 0)
+                    shards.addAll(Collections.nCopies(Math.max(total, 0), (List<String>)null));
+                if (k < 1 || k > total || total != shards.size() || shards.get(k - 1) != null) {
+                    String template = errorstrings.getString("Error_generator_shard_file");
+                    Object[] arguments = { file.toString() };
+                    throw new JuggleExceptionUser(MessageFormat.format(template, arguments));
+                }
+
+                // the last line may be the number of patterns
+                int end = lines.size();
+                String last = (end > 1 ? lines.get(end - 1) : "");
+                if (last.equals(count1)) {
+                    count += 1;
+                    --end;
+                } else {
+                    try {
+                        count += ((Number)countformat.parse(last)[0]).longValue();
+                        --end;
+                    } catch (ParseException pe) {
+                        counted = false;
+                    }
+                }
+                shards.set(k - 1, lines.subList(1, end));
+            }
+
+            for (int i = 0; i < shards.size(); ++i) {
+                if (shards.get(i) == null) {
+                    String template = errorstrings.getString("Error_generator_shard_missing");
+                    Object[] arguments = { new Integer(i + 1), new Integer(shards.size()) };
+                    throw new JuggleExceptionUser(MessageFormat.format(template, arguments));
+                }
+            }
+
+            for (List<String> lines : shards) {
+                for (String line : lines)
+                    ps.println(line);
+            }
+            if (counted && shards.size() > 0) {
+                if (count == 1)
+                    ps.println(count1);
+                else {
+                    Object[] arguments = { new Long(count) };
+                    ps.println(countformat.format(arguments));
+                }
+            }
+        } catch (JuggleExceptionUser jeu) {
+            System.out.println(errorstrings.getString("Error")+": "+jeu.getMessage());
+        }
+    }
+
     public static void main(String[] args) {
         SiteswapGenerator.runGeneratorCLI(args, new GeneratorTarget(System.out));
     }
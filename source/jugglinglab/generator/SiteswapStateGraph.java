@@ -0,0 +1,311 @@
+// SiteswapStateGraph.java
+//
+// Copyright 2021 by Jack Boyce (jboyce@gmail.com)
+
+package jugglinglab.generator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+// The state graph explored by SiteswapGenerator, built explicitly.
+//
+// The vertices are the states (as in SiteswapGenerator.state[]) that can
+// occur at the start of a rhythm period, and each edge is one rhythm period's
+// worth of throws. Since different throws can lead to the same state, every
+// edge carries the number of distinct ways of making it.
+//
+// Vertices are numbered in increasing order according to
+// SiteswapGenerator.compareStates(), so the states less than a given state
+// are exactly the ones with smaller index.
+
+class SiteswapStateGraph {
+    protected SiteswapGenerator gen;
+    protected int hands;
+    protected int ht;
+
+    protected ArrayList<int[][]> states;
+    protected HashMap<String, Integer> stateindex;
+    protected int[][] succ;         // successor vertices of each vertex
+    protected long[][] mult;        // number of ways to make each edge
+
+    // used by getEdgeThrows()
+    protected String edgetarget;
+    protected long edgeindex;
+
+
+    // Builds the graph using the generator's current configuration. If
+    // `groundonly` is true, only the states reachable from the ground state
+    // are included.
+    public SiteswapStateGraph(SiteswapGenerator gen, boolean groundonly) {
+        this.gen = gen;
+        hands = gen.hands;
+        ht = gen.ht;
+
+        states = new ArrayList<int[][]>();
+        stateindex = new HashMap<String, Integer>();
+
+        if (groundonly) {
+            if (gen.ground_state_length <= gen.ht) {
+                int[][] gs = new int[hands][ht];
+                for (int i = 0; i < hands; ++i)
+                    for (int j = 0; j < ht; ++j)
+                        gs[i][j] = gen.ground_state[i][j];
+                addState(gs);
+            }
+        } else
+            addStartingStates(new int[hands][ht], 0, 0, 0);
+
+        // breadth-first search for everything reachable from these
+        ArrayList<LinkedHashMap<String, Successor>> edges =
+                        new ArrayList<LinkedHashMap<String, Successor>>();
+        for (int i = 0; i < states.size(); ++i) {
+            LinkedHashMap<String, Successor> next = findSuccessors(states.get(i));
+            for (Successor s : next.values())
+                addState(s.state);
+            edges.add(next);
+        }
+
+        sortStates(edges);
+    }
+
+    public int getNumberOfStates()          { return states.size(); }
+    public int[][] getState(int index)      { return states.get(index); }
+
+    // Returns the index of the given state, or -1 if it's not in the graph.
+    public int getStateIndex(int[][] st) {
+        Integer index = stateindex.get(getKey(st));
+        return (index == null ? -1 : index.intValue());
+    }
+
+    // Fills in the generator's throw_value[] and throw_to[] arrays, starting
+    // at beat `pos`, with the throws for the `index`th way of making the edge
+    // from vertex `from` to vertex `to`.
+    public void getEdgeThrows(int from, int to, long index, int pos) {
+        edgetarget = getKey(states.get(to));
+        edgeindex = index;
+        findEdgeThrows(states.get(from), 0, pos);
+    }
+
+    //--------------------------------------------------------------------------
+    // Non-public methods below
+    //--------------------------------------------------------------------------
+
+    protected static class Successor {
+        int[][] state;
+        long ways;
+
+        Successor(int[][] state) {
+            this.state = state;
+        }
+    }
+
+    protected String getKey(int[][] st) {
+        char[] key = new char[hands * ht];
+        for (int i = 0; i < hands; ++i)
+            for (int j = 0; j < ht; ++j)
+                key[i * ht + j] = (char)st[i][j];
+        return new String(key);
+    }
+
+    protected void addState(int[][] st) {
+        String key = getKey(st);
+        if (!stateindex.containsKey(key)) {
+            stateindex.put(key, states.size());
+            states.add(st);
+        }
+    }
+
+    // Adds every state with the right number of objects, in the same way as
+    // SiteswapGenerator.nextStartingState().
+    protected void addStartingStates(int[][] st, int balls_placed, int min_value, int min_to) {
+        if (balls_placed == gen.n) {
+            int[][] copy = new int[hands][];
+            for (int i = 0; i < hands; ++i)
+                copy[i] = st[i].clone();
+            addState(copy);
+            return;
+        }
+
+        int j = min_to;
+        for (int i = min_value; i < ht; ++i) {
+            for ( ; j < hands; ++j) {
+                if (st[j][i] < gen.rhythm[0][j][i]) {
+                    ++st[j][i];
+                    addStartingStates(st, balls_placed + 1, i, j);
+                    --st[j][i];
+                }
+            }
+            j = 0;
+        }
+    }
+
+    // Finds the states reachable from `st` in one rhythm period.
+    protected LinkedHashMap<String, Successor> findSuccessors(int[][] st) {
+        LinkedHashMap<String, Successor> current = new LinkedHashMap<String, Successor>();
+        Successor start = new Successor(st);
+        start.ways = 1;
+        current.put(getKey(st), start);
+
+        for (int phase = 0; phase < gen.rhythm_period; ++phase) {
+            LinkedHashMap<String, Successor> next = new LinkedHashMap<String, Successor>();
+
+            for (Successor s : current.values()) {
+                int[][] t = new int[hands][ht];  // shift state to the left
+                for (int i = 0; i < hands; ++i)
+                    for (int j = 0; j < ht - 1; ++j)
+                        t[i][j] = s.state[i][j + 1];
+
+                assignThrows(s.state, t, phase, 0, s.state[0][0], 1, 0, s.ways, next);
+            }
+            current = next;
+        }
+        return current;
+    }
+
+    // Assigns the throws made on one beat, in the same order as
+    // SiteswapGenerator.nextPattern(). `t` is the next state being built up,
+    // and `left` is the number of throws hand `h` still has to make.
+    protected void assignThrows(int[][] st, int[][] t, int phase, int h, int left,
+                        int min_throw, int min_hand, long ways,
+                        LinkedHashMap<String, Successor> next) {
+        while (left == 0) {
+            if (++h == hands) {
+                String key = getKey(t);
+                Successor s = next.get(key);
+                if (s == null) {
+                    int[][] copy = new int[hands][];
+                    for (int i = 0; i < hands; ++i)
+                        copy[i] = t[i].clone();
+                    s = new Successor(copy);
+                    next.put(key, s);
+                }
+                s.ways += ways;
+                return;
+            }
+            left = st[h][0];
+            min_throw = 1;
+            min_hand = 0;
+        }
+
+        int k = min_hand;
+        for (int j = min_throw; j <= ht; ++j) {
+            for (; k < hands; ++k) {
+                int capacity = gen.multiplex *
+                        gen.rhythm_repunit[k][(phase + j) % gen.rhythm_period];
+                if (t[k][j - 1] >= capacity)
+                    continue;
+
+                ++t[k][j - 1];
+                if (gen.mp_clustered)
+                    assignThrows(st, t, phase, h, left - 1, j, k, ways, next);
+                else
+                    assignThrows(st, t, phase, h, left - 1, j, k + 1, ways, next);
+                --t[k][j - 1];
+            }
+            k = 0;
+        }
+    }
+
+    // Makes the throws for one beat of an edge, trying them in the same order
+    // as assignThrows(). Returns true once the edge we want has been found.
+    protected boolean findEdgeThrows(int[][] st, int phase, int pos) {
+        if (phase == gen.rhythm_period)
+            return (getKey(st).equals(edgetarget) && edgeindex-- == 0);
+
+        int beat = pos + phase;
+        for (int i = 0; i < hands; ++i) {
+            for (int j = 0; j < gen.max_occupancy; ++j) {
+                gen.throw_to[beat][i][j] = i;
+                gen.throw_value[beat][i][j] = 0;
+            }
+        }
+
+        int[][] t = new int[hands][ht];
+        for (int i = 0; i < hands; ++i)
+            for (int j = 0; j < ht - 1; ++j)
+                t[i][j] = st[i][j + 1];
+
+        return findBeatThrows(st, t, phase, pos, 0, st[0][0], 1, 0);
+    }
+
+    protected boolean findBeatThrows(int[][] st, int[][] t, int phase, int pos, int h,
+                        int left, int min_throw, int min_hand) {
+        while (left == 0) {
+            if (++h == hands)
+                return findEdgeThrows(t, phase + 1, pos);
+            left = st[h][0];
+            min_throw = 1;
+            min_hand = 0;
+        }
+
+        int beat = pos + phase;
+        int k = min_hand;
+        for (int j = min_throw; j <= ht; ++j) {
+            for (; k < hands; ++k) {
+                int capacity = gen.multiplex *
+                        gen.rhythm_repunit[k][(phase + j) % gen.rhythm_period];
+                if (t[k][j - 1] >= capacity)
+                    continue;
+
+                ++t[k][j - 1];
+                gen.throw_value[beat][h][left - 1] = j;
+                gen.throw_to[beat][h][left - 1] = k;
+
+                if (findBeatThrows(st, t, phase, pos, h, left - 1, j,
+                                   gen.mp_clustered ? k : k + 1))
+                    return true;
+                --t[k][j - 1];
+            }
+            k = 0;
+        }
+
+        gen.throw_value[beat][h][left - 1] = 0;
+        gen.throw_to[beat][h][left - 1] = h;
+        return false;
+    }
+
+    // Renumbers the vertices in increasing order and fills in the edge arrays.
+    protected void sortStates(ArrayList<LinkedHashMap<String, Successor>> edges) {
+        int num = states.size();
+        Integer[] order = new Integer[num];
+        for (int i = 0; i < num; ++i)
+            order[i] = i;
+
+        final ArrayList<int[][]> unsorted = states;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return gen.compareStates(unsorted.get(a), unsorted.get(b));
+            }
+        });
+
+        int[] newindex = new int[num];
+        states = new ArrayList<int[][]>(num);
+        for (int i = 0; i < num; ++i) {
+            newindex[order[i]] = i;
+            states.add(unsorted.get(order[i]));
+        }
+        for (Map.Entry<String, Integer> entry : stateindex.entrySet())
+            entry.setValue(newindex[entry.getValue()]);
+
+        succ = new int[num][];
+        mult = new long[num][];
+        for (int i = 0; i < num; ++i) {
+            LinkedHashMap<String, Successor> next = edges.get(order[i]);
+            succ[i] = new int[next.size()];
+            mult[i] = new long[next.size()];
+
+            int e = 0;
+            for (Map.Entry<String, Successor> entry : next.entrySet()) {
+                succ[i][e] = stateindex.get(entry.getKey());
+                mult[i][e] = entry.getValue().ways;
+                ++e;
+            }
+        }
+    }
+}
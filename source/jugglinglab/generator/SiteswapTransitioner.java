@@ -26,6 +26,7 @@ public class SiteswapTransitioner extends Transitioner {
     protected boolean mp_allow_simulcatches;
     protected boolean mp_allow_clusters;
     protected boolean no_limits;
+    protected boolean progressflag;
     protected String pattern_from;
     protected String pattern_to;
     protected SiteswapPattern siteswap_from;
@@ -52,6 +53,9 @@ public class SiteswapTransitioner extends Transitioner {
     protected long max_time_millis;     // maximum number of milliseconds
     protected long start_time_millis;   // start time of run, in milliseconds
     protected int loop_counter;         // gen_loop() counter for checking timeout
+    protected long nodes_visited;       // number of calls to recurse()
+    protected int trans_found;          // number of transitions found so far
+    protected long progress_millis;     // time of last progress report
 
     protected SiteswapTransitionerControl control;
     protected GeneratorTarget target;
@@ -98,11 +102,12 @@ public class SiteswapTransitioner extends Transitioner {
                     throws JuggleExceptionUser, JuggleExceptionInternal {
         max_num = num_limit;
         max_time = secs_limit;
-        if (max_time > 0 || Constants.DEBUG_TRANSITIONS) {
+        if (max_time > 0 || progress_listener != null || Constants.DEBUG_TRANSITIONS) {
             max_time_millis = (long)(1000.0 * secs_limit);
-            start_time_millis = System.currentTimeMillis();
+            start_time_millis = progress_millis = System.currentTimeMillis();
             loop_counter = 0;
         }
+        nodes_visited = 0L;
 
         try {
             t.setPrefixSuffix("(" + pattern_from + "^2)",
@@ -110,6 +115,7 @@ public class SiteswapTransitioner extends Transitioner {
 
             int num = 0;
             target = t;
+            trans_found = 0;  // don't count the return transition
 
             if (l_min == 0) {
                 // no transitions needed
@@ -163,6 +169,7 @@ public class SiteswapTransitioner extends Transitioner {
         mp_allow_simulcatches = false;
         mp_allow_clusters = true;
         no_limits = false;
+        progressflag = false;
         target = null;
 
         for (int i = 2; i < args.length; ++i) {
@@ -184,6 +191,8 @@ public class SiteswapTransitioner extends Transitioner {
                 }
             } else if (args[i].equals("-limits"))
                 no_limits = true;  // for CLI mode only
+            else if (args[i].equals("-progress"))
+                progressflag = true;  // for CLI mode only
             else {
                 String template = errorstrings.getString("Error_unrecognized_option");
                 Object[] arguments = { args[i] };
@@ -360,15 +369,26 @@ public class SiteswapTransitioner extends Transitioner {
         if (Thread.interrupted())
             throw new JuggleExceptionInterrupted();
 
-        // do a time check
-        if (max_time > 0) {
+        ++nodes_visited;
+
+        // do a time check, and report our progress if it's time
+        if (max_time > 0 || progress_listener != null) {
             if (++loop_counter > loop_counter_max) {
                 loop_counter = 0;
-                if ((System.currentTimeMillis() - start_time_millis) > max_time_millis) {
+                long millis = System.currentTimeMillis();
+                if (max_time > 0 && (millis - start_time_millis) > max_time_millis) {
                     String template = guistrings.getString("Generator_timeout");
                     Object[] arguments = { new Integer((int)max_time) };
                     throw new JuggleExceptionDone(MessageFormat.format(template, arguments));
                 }
+                if (progress_listener != null &&
+                            (millis - progress_millis) >= GeneratorProgress.REPORT_INTERVAL_MILLIS) {
+                    // no estimate of the search size, since the number of
+                    // lengths to search isn't known in advance
+                    progress_listener.progressUpdate(new GeneratorProgress(nodes_visited,
+                                -1L, trans_found, l_target, millis - start_time_millis));
+                    progress_millis = millis;
+                }
             }
         }
 
@@ -394,6 +414,7 @@ public class SiteswapTransitioner extends Transitioner {
                     if (Constants.DEBUG_TRANSITIONS)
                         System.out.println("got a pattern");
                     outputPattern();
+                    ++trans_found;
                     return 1;
                 } else
                     return 0;
@@ -1077,6 +1098,14 @@ public class SiteswapTransitioner extends Transitioner {
         try {
             SiteswapTransitioner sst = new SiteswapTransitioner();
             sst.initTransitioner(args);
+            if (sst.progressflag) {
+                sst.setProgressListener(new GeneratorProgress.Listener() {
+                    @Override
+                    public void progressUpdate(GeneratorProgress progress) {
+                        System.err.println(progress.toString());
+                    }
+                });
+            }
 
             if (sst.no_limits)
                 sst.runTransitioner(target);
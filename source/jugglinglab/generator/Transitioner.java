@@ -18,6 +18,8 @@ public abstract class Transitioner {
     static final ResourceBundle guistrings = jugglinglab.JugglingLab.guistrings;
     static final ResourceBundle errorstrings = jugglinglab.JugglingLab.errorstrings;
 
+    protected GeneratorProgress.Listener progress_listener;
+
     // The built-in transitioners
     public static final String[] builtinTransitioners = { "Siteswap" };
 
@@ -40,6 +42,11 @@ public abstract class Transitioner {
         initTransitioner(args);
     }
 
+    // receive progress reports while the transitioner runs (null for none)
+    public void setProgressListener(GeneratorProgress.Listener listener) {
+        progress_listener = listener;
+    }
+
     // return the notation name
     public abstract String getNotationName();
 
@@ -4,6 +4,8 @@
 
 package jugglinglab.jml;
 
+import java.util.*;
+
 import jugglinglab.util.*;
 
 
@@ -12,6 +14,7 @@ public class EventImages {
     protected int numjugglers, numpaths;
     protected double looptime;
     protected Permutation loopperm = null;
+    protected int looporder;
 
     protected JMLEvent ev = null;
     protected int evjuggler, evhand, evtransitions; // hand is by index (0 or 1)
@@ -24,6 +27,14 @@ public class EventImages {
 
     protected int currentloop, currentj, currenth, currententry;
 
+    // path permutations of the images made so far, keyed on image slot and
+    // loop number (mod looporder). These are interned, so images that map
+    // paths the same way share a single Permutation object.
+    protected HashMap<Long, Permutation> imageperms = new HashMap<Long, Permutation>();
+
+    // loop cycles that this event's transitions visit, over all images
+    protected boolean[] hitcycle, hitvdcycle;
+
 
     public EventImages(JMLPattern pat, JMLEvent ev) throws JuggleExceptionUser {
         this.pat = pat;
@@ -80,17 +91,7 @@ public class EventImages {
             c1.x = -c1.x;
             newevent.setLocalCoordinate(c1);
         }
-        Permutation p = ea[currentj][currenth][currententry];
-        Permutation lp = this.loopperm;
-        int pow = currentloop;
-        if (pow < 0) {
-            lp = lp.getInverse();
-            pow = -pow;
-        }
-        while (pow > 0) {
-            p = lp.apply(p);
-            pow--;
-        }
+        Permutation p = getImagePerm(currentj, currenth, currententry, currentloop);
         for (int i = 0; i < this.evtransitions; i++) {
             JMLTransition tr = newevent.getTransition(i);
             int masterpath = ev.getTransition(i).getPath();
@@ -106,6 +107,26 @@ public class EventImages {
         return newevent;
     }
 
+    // Path permutation for the image in the given slot, with `loop` powers of
+    // the loop permutation applied
+    protected Permutation getImagePerm(int j, int h, int entry, int loop) {
+        Permutation p = ea[j][h][entry];
+        int pow = Math.floorMod(loop, looporder);
+        if (pow == 0)
+            return p;
+
+        long key = ((long)((j * 2 + h) * numentries + entry) << 32) | (pow & 0xffffffffL);
+        Permutation result = imageperms.get(key);
+        if (result == null) {
+            int[] res = new int[numpaths];
+            for (int i = 0; i < numpaths; i++)
+                res[i] = loopperm.getMapping(p.getMapping(i+1), pow);
+            result = Permutation.intern(new Permutation(numpaths, res, false));
+            imageperms.put(key, result);
+        }
+        return result;
+    }
+
     public void resetPosition() {
         this.currentloop = 0;
         this.currentj = evjuggler;
@@ -141,57 +162,42 @@ public class EventImages {
     }
 
     public boolean hasJMLTransitionForPath(int path) {
-        int[] cycle = loopperm.getCycle(path);
+        return hitcycle[loopperm.getCycleNumber(path)];
+    }
+
+    public boolean hasVDJMLTransitionForPath(int path) {
+        return hitvdcycle[loopperm.getCycleNumber(path)];
+    }
+
+    // Find the loop cycles that the images of this event visit
+    protected void calcHitCycles() {
+        hitcycle = new boolean[loopperm.getNumberOfCycles()];
+        hitvdcycle = new boolean[loopperm.getNumberOfCycles()];
 
         for (int i = 0; i < numjugglers; i++) {
             for (int j = 0; j < numentries; j++) {
                 for (int h = 0; h < 2; h++) {
+                    if (ea[i][h][j] == null)
+                        continue;
                     for (int k = 0; k < evtransitions; k++) {
-                        if (ea[i][h][j] != null) {
-                            int newp = ea[i][h][j].getMapping(ev.getTransition(k).getPath());
-                            for (int l = 0; l < cycle.length; l++) {
-                                if (newp == cycle[l])
-                                    return true;
-                            }
-                        }
+                        int newp = ea[i][h][j].getMapping(ev.getTransition(k).getPath());
+                        int c = loopperm.getCycleNumber(newp);
+                        hitcycle[c] = true;
+                        if ((transitiontype[k] == JMLTransition.TRANS_THROW) ||
+                                (transitiontype[k] == JMLTransition.TRANS_SOFTCATCH))
+                            hitvdcycle[c] = true;
                     }
                 }
             }
         }
-        return false;
     }
 
-    public boolean hasVDJMLTransitionForPath(int path) {
-        int[] cycle = loopperm.getCycle(path);
-
-        for (int k = 0; k < evtransitions; k++) {
-            if ((transitiontype[k] == JMLTransition.TRANS_THROW) ||
-                (transitiontype[k] == JMLTransition.TRANS_SOFTCATCH)) {
-                for (int i = 0; i < numjugglers; i++) {
-                    for (int j = 0; j < numentries; j++) {
-                        for (int h = 0; h < 2; h++) {
-                            if (ea[i][h][j] != null) {
-                                int newp = ea[i][h][j].getMapping(ev.getTransition(k).getPath());
-                                for (int l = 0; l < cycle.length; l++) {
-                                    if (newp == cycle[l])
-                                        return true;
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-        }
-
-        return false;
-    }
-
-
     protected void calcarray() throws JuggleExceptionUser {
         this.numjugglers = pat.getNumberOfJugglers();
         this.numpaths = pat.getNumberOfPaths();
         this.looptime = pat.getLoopEndTime() - pat.getLoopStartTime();
         this.loopperm = pat.getPathPermutation();
+        this.looporder = loopperm.getOrder();
 
         this.evjuggler = ev.getJuggler() - 1;
         this.evhand = HandLink.index(ev.getHand());
@@ -235,7 +241,7 @@ public class EventImages {
         this.ea = new Permutation[numjugglers][2][numentries];
         this.transitiontype = new int[evtransitions];
 
-        Permutation idperm = new Permutation(numpaths, false);  // identity
+        Permutation idperm = Permutation.intern(new Permutation(numpaths, false));  // identity
         ev.setPathPermFromMaster(idperm);
         ea[evjuggler][evhand][0] = idperm;
         for (int i = 0; i < evtransitions; i++) {
@@ -290,6 +296,8 @@ public class EventImages {
         } while (changed);
         // System.out.println("**** done with event");
 
+        calcHitCycles();
+
         /*      int[][][] ea = eventlist.getEventArray();
         for (int j = 0; j < numjugglers; j++) {
             for (int k = 0; k < 2; k++) {
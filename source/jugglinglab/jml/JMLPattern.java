@@ -52,10 +52,16 @@ public class JMLPattern {
 
     protected ArrayList<JMLSymmetry> symmetries;
     protected JMLEvent eventlist;
+    protected ArrayList<JMLEvent> eventarray;   // same events as `eventlist`, in same order
+    protected ArrayList<ArrayList<ArrayList<JMLEvent>>> handevents;  // built on demand
     protected JMLPosition positionlist;
     protected boolean laidout;
     protected boolean valid;
 
+    // master events whose positions have changed since the last layout; if
+    // non-null then layoutPattern() only updates the affected parts
+    protected ArrayList<JMLEvent> changedmasters;
+
     // list of PathLink objects for each path
     protected ArrayList<ArrayList<PathLink>> pathlinks;
 
@@ -65,12 +71,23 @@ public class JMLPattern {
     protected Curve[] jugglercurve;  // coordinates for each juggler
     protected Curve[] jugglerangle;  // angles for each juggler
 
+    // bounding boxes for each path, juggler/hand, and juggler; see
+    // calcBoundingBoxes()
+    protected Coordinate[] pathmax, pathmin;
+    protected Coordinate[][] handmax, handmin;
+    protected Coordinate[] jugglermax, jugglermin;
+
+    // times of catches and bounces within the pattern loop, in increasing
+    // order; see calcSoundTimes()
+    protected double[] catchtimes, bouncetimes;
+
 
     public JMLPattern() {
         laidout = false;
         valid = true;
         props = new ArrayList<PropDef>();
         symmetries = new ArrayList<JMLSymmetry>();
+        eventarray = new ArrayList<JMLEvent>();
     }
 
     public JMLPattern(JMLNode root) throws JuggleExceptionUser {
@@ -139,57 +156,171 @@ public class JMLPattern {
         setNeedsLayout(true);
     }
 
+    // ------------------------------------------------------------------------
+    //   Event storage
+    //
+    // Events are kept in an array sorted by time, which is also exposed as
+    // the doubly-linked list starting at `eventlist`. Per-hand arrays are
+    // built from it on demand, for finding an event's neighbors in the same
+    // hand.
+    // ------------------------------------------------------------------------
+
     public void addEvent(JMLEvent ev) {
         setNeedsLayout(true);
-        if (eventlist == null || eventlist.getT() > ev.getT()) {
-            ev.setPrevious(null);
-            ev.setNext(eventlist);
-            if (eventlist != null)
-                eventlist.setPrevious(ev);
-            eventlist = ev;
-            return;
-        }
 
-        JMLEvent current = eventlist;
-        while (current.getNext() != null) {
-            current = current.getNext();
-
-            if (current.getT() > ev.getT()) {
-                ev.setNext(current);
-                ev.setPrevious(current.getPrevious());
-                current.getPrevious().setNext(ev);
-                current.setPrevious(ev);
-                return;
-            }
+        // insert after any events with the same time
+        double t = ev.getT();
+        int lo = 0;
+        int hi = eventarray.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (eventarray.get(mid).getT() > t)
+                hi = mid;
+            else
+                lo = mid + 1;
         }
+        eventarray.add(lo, ev);
 
-        current.setNext(ev);
-        ev.setNext(null);
-        ev.setPrevious(current);
+        JMLEvent prev = (lo > 0 ? eventarray.get(lo - 1) : null);
+        JMLEvent next = (lo < eventarray.size() - 1 ? eventarray.get(lo + 1) : null);
+        ev.setPrevious(prev);
+        ev.setNext(next);
+        if (prev != null)
+            prev.setNext(ev);
+        else
+            eventlist = ev;
+        if (next != null)
+            next.setPrevious(ev);
     }
 
     public void removeEvent(JMLEvent ev) {
         setNeedsLayout(true);
-        if (eventlist == ev) {
-            eventlist = ev.getNext();
-            if (eventlist != null)
-                eventlist.setPrevious(null);
+        int index = findEvent(eventarray, ev);
+        if (index < 0)
             return;
-        }
+        eventarray.remove(index);
 
+        // leave the links in `ev` alone, so callers walking the list can
+        // continue on from it
         JMLEvent next = ev.getNext();
         JMLEvent prev = ev.getPrevious();
         if (next != null)
             next.setPrevious(prev);
         if (prev != null)
             prev.setNext(next);
+        else
+            eventlist = next;
+    }
+
+    // Replace the events with `events`, which must be sorted by time.
+    protected void setEvents(ArrayList<JMLEvent> events) {
+        setNeedsLayout(true);
+        eventarray = events;
+
+        JMLEvent prev = null;
+        for (JMLEvent ev : eventarray) {
+            ev.setPrevious(prev);
+            if (prev != null)
+                prev.setNext(ev);
+            prev = ev;
+        }
+        if (prev != null)
+            prev.setNext(null);
+        eventlist = (eventarray.size() > 0 ? eventarray.get(0) : null);
+    }
+
+    // Find the index of `ev` in a time-sorted list of events, or -1 if not
+    // present.
+    protected static int findEvent(ArrayList<JMLEvent> events, JMLEvent ev) {
+        double t = ev.getT();
+        int lo = 0;
+        int hi = events.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (events.get(mid).getT() < t)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        for (int i = lo; i < events.size() && events.get(i).getT() == t; i++)
+            if (events.get(i) == ev)
+                return i;
+
+        // event time may have been changed after it was added
+        for (int i = 0; i < events.size(); i++)
+            if (events.get(i) == ev)
+                return i;
+        return -1;
+    }
+
+    public JMLEvent getEventList()  { return eventlist; }
+
+    public int getNumberOfEvents()  { return eventarray.size(); }
+
+    // Returns the events in time order; don't modify the returned list.
+    public List<JMLEvent> getEvents()   { return Collections.unmodifiableList(eventarray); }
+
+    // Returns the events for a given juggler and hand, in time order.
+    public List<JMLEvent> getEventsForHand(int juggler, int hand) {
+        if (handevents == null) {
+            handevents = new ArrayList<ArrayList<ArrayList<JMLEvent>>>(numjugglers);
+            for (int i = 0; i < numjugglers; i++) {
+                handevents.add(new ArrayList<ArrayList<JMLEvent>>(2));
+                handevents.get(i).add(new ArrayList<JMLEvent>());
+                handevents.get(i).add(new ArrayList<JMLEvent>());
+            }
+            for (JMLEvent ev : eventarray) {
+                int j = ev.getJuggler() - 1;
+                if (j >= 0 && j < numjugglers)
+                    handevents.get(j).get(HandLink.index(ev.getHand())).add(ev);
+            }
+        }
+        return Collections.unmodifiableList(handevents.get(juggler - 1).get(HandLink.index(hand)));
+    }
+
+    // Returns the event before `ev` for the same juggler and hand, or null if
+    // none.
+    public JMLEvent getPreviousEventForHand(JMLEvent ev) {
+        getEventsForHand(ev.getJuggler(), ev.getHand());
+        ArrayList<JMLEvent> list = handevents.get(ev.getJuggler() - 1).get(HandLink.index(ev.getHand()));
+        int index = findEvent(list, ev);
+        return (index > 0 ? list.get(index - 1) : null);
+    }
+
+    // Returns the event after `ev` for the same juggler and hand, or null if
+    // none.
+    public JMLEvent getNextEventForHand(JMLEvent ev) {
+        getEventsForHand(ev.getJuggler(), ev.getHand());
+        ArrayList<JMLEvent> list = handevents.get(ev.getJuggler() - 1).get(HandLink.index(ev.getHand()));
+        int index = findEvent(list, ev);
+        return ((index >= 0 && index < list.size() - 1) ? list.get(index + 1) : null);
     }
 
     public void setNeedsLayout(boolean needslayout) {
         laidout = !needslayout;
+        changedmasters = null;
+        if (needslayout) {
+            handevents = null;
+            pathmax = null;
+        }
     }
 
-    public JMLEvent getEventList()  { return eventlist; }
+    // Call this after changing the local coordinate of an event in place. If
+    // the pattern is otherwise laid out, the next call to layoutPattern() does
+    // an incremental update rather than a full layout.
+    public void setEventPositionChanged(JMLEvent ev) {
+        if (!ev.isMaster())
+            ev = ev.getMaster();
+
+        if (laidout) {
+            laidout = false;
+            changedmasters = new ArrayList<JMLEvent>();
+        } else if (changedmasters == null)
+            return;     // full layout is already pending
+
+        if (!changedmasters.contains(ev))
+            changedmasters.add(ev);
+    }
 
 	public ArrayList<ArrayList<PathLink>> getPathlinks()  { return pathlinks; }
 
@@ -253,17 +384,40 @@ public class JMLPattern {
         if (!valid)
             throw new JuggleExceptionInternal("Cannot do layout of invalid pattern");
 
+        if (changedmasters != null) {
+            layoutChangedEvents();
+            calcBoundingBoxes();
+            calcSoundTimes();
+            changedmasters = null;
+            laidout = true;
+            return;
+        }
+
         if (getNumberOfProps() == 0)
             addProp(new PropDef("ball", null));
         for (int i = 0; i < getNumberOfProps(); i++)
             props.get(i).layoutProp();
 
-        buildEventList();
-        findMasterEvents();
+        // On the first layout the expanded event list may be available from
+        // an earlier run; see LayoutCache
+        String cachekey = null;
+        if (pathlinks == null && LayoutCache.isEnabled())
+            cachekey = LayoutCache.getKey(this);
+
+        if (cachekey == null || !LayoutCache.readEventList(this, cachekey)) {
+            long start = System.currentTimeMillis();
+            buildEventList();
+            findMasterEvents();
+            if (cachekey != null)
+                LayoutCache.writeEventList(this, cachekey, System.currentTimeMillis() - start);
+        }
+
         findPositions();
         gotoGlobalCoordinates();
         buildLinkLists();
         layoutHandPaths();
+        calcBoundingBoxes();
+        calcSoundTimes();
 
         if (Constants.DEBUG_LAYOUT) {
             for (int i = 0; i < getNumberOfPaths(); i++) {
@@ -289,25 +443,33 @@ public class JMLPattern {
     // ------------------------------------------------------------------------
 
     public void buildEventList() throws JuggleExceptionInternal, JuggleExceptionUser {
-        // figure out how many events there are
-        int numevents = 0;
-        JMLEvent current = eventlist;
-        while (current != null) {
+        // strip out everything but the master events, and re-sort these by
+        // time in case any were changed in place
+        ArrayList<JMLEvent> masters = new ArrayList<JMLEvent>();
+        for (JMLEvent current = eventlist; current != null; current = current.getNext()) {
             if ((current.getJuggler() < 1) || (current.getJuggler() > numjugglers))
                 throw new JuggleExceptionUser(errorstrings.getString("Error_juggler_outofrange"));
             if (current.isMaster())
-                numevents++;
-            else
-                removeEvent(current);
-            current = current.getNext();
+                masters.add(current);
         }
+        Comparator<JMLEvent> bytime = new Comparator<JMLEvent>() {
+            @Override
+            public int compare(JMLEvent ev1, JMLEvent ev2) {
+                return Double.compare(ev1.getT(), ev2.getT());
+            }
+        };
+        Collections.sort(masters, bytime);
+        setEvents(masters);
+        int numevents = masters.size();
+
+        // The images are collected here and put in time order at the end,
+        // rather than inserted into the event array one at a time.
+        ArrayList<JMLEvent> events = new ArrayList<JMLEvent>(masters);
+
         // construct event images for extending event list
         EventImages[] ei = new EventImages[numevents];
-        current = eventlist;
-        for (int i = 0; i < numevents; i++) {
-            ei[i] = new EventImages(this, current);
-            current = current.getNext();
-        }
+        for (int i = 0; i < numevents; i++)
+            ei[i] = new EventImages(this, masters.get(i));
 
         // arrays used for creating the event list
         boolean[][] needHandEvent = new boolean[numjugglers][2];
@@ -386,7 +548,7 @@ public class JMLPattern {
                 }
             }
 
-            addEvent(maxevent);
+            events.add(maxevent);
             eventqueue[maxnum] = ei[maxnum].getPrevious();  // restock queue
 
             // now update the needs arrays, so we know when to stop
@@ -463,7 +625,7 @@ public class JMLPattern {
                 }
             }
 
-            addEvent(minevent);
+            events.add(minevent);
             eventqueue[minnum] = ei[minnum].getNext();  // restock queue
 
             // now update the needs arrays, so we know when to stop
@@ -519,6 +681,11 @@ public class JMLPattern {
                 contin |= needSpecialPathEvent[i];
             }
         } while (contin);
+
+        // The sort is stable, so events with the same time stay in the order
+        // they were added, as with addEvent().
+        Collections.sort(events, bytime);
+        setEvents(events);
     }
 
     // ------------------------------------------------------------------------
@@ -832,6 +999,14 @@ public class JMLPattern {
     // ------------------------------------------------------------------------
 
     protected void layoutHandPaths() throws JuggleExceptionInternal {
+        layoutHandPaths(null, null);
+    }
+
+    // If `changedevents` is non-null then only recalculate the hand curves that
+    // touch those events, or that get their endpoint velocities from a path in
+    // `changedpaths`. Other curves are left as they are.
+    protected void layoutHandPaths(HashSet<JMLEvent> changedevents, HashSet<Path> changedpaths)
+                        throws JuggleExceptionInternal {
 
         // go through HandLink lists, creating Path objects and calculating paths
 
@@ -855,22 +1030,25 @@ public class JMLPattern {
                             num = 1;
                         }
                         if ((hl.getEndVelocityRef() != null) && (startlink != null)) {
-                            Coordinate[] pos = new Coordinate[num+1];
-                            double[] times = new double[num+1];
-                            Curve hp = new SplineCurve();
-
-                            for (int l = 0; l < num; l++) {
-                                HandLink hl2 = handlinks.get(i).get(j).get(k-num+1+l);
-                                pos[l] = hl2.getStartEvent().getGlobalCoordinate();
-                                times[l] = hl2.getStartEvent().getT();
-                                hl2.setHandCurve(hp);
+                            if (isHandChainChanged(handlinks.get(i).get(j), k-num+1, k,
+                                                   changedevents, changedpaths)) {
+                                Coordinate[] pos = new Coordinate[num+1];
+                                double[] times = new double[num+1];
+                                Curve hp = new SplineCurve();
+
+                                for (int l = 0; l < num; l++) {
+                                    HandLink hl2 = handlinks.get(i).get(j).get(k-num+1+l);
+                                    pos[l] = hl2.getStartEvent().getGlobalCoordinate();
+                                    times[l] = hl2.getStartEvent().getT();
+                                    hl2.setHandCurve(hp);
+                                }
+                                pos[num] = hl.getEndEvent().getGlobalCoordinate();
+                                times[num] = hl.getEndEvent().getT();
+                                Coordinate startvel = startlink.getStartVelocityRef().getVelocity();
+                                Coordinate endvel = hl.getEndVelocityRef().getVelocity();
+                                hp.setCurve(pos, times, startvel, endvel);
+                                hp.calcCurve();
                             }
-                            pos[num] = hl.getEndEvent().getGlobalCoordinate();
-                            times[num] = hl.getEndEvent().getT();
-                            Coordinate startvel = startlink.getStartVelocityRef().getVelocity();
-                            Coordinate endvel = hl.getEndVelocityRef().getVelocity();
-                            hp.setCurve(pos, times, startvel, endvel);
-                            hp.calcCurve();
                             startlink = null;
                         }
                         ++num;
@@ -904,6 +1082,13 @@ public class JMLPattern {
                             hl = handlinks.get(i).get(j).get(++k);
                             ++num;
                         }
+                        if (!isHandChainChanged(handlinks.get(i).get(j), k-num+1, k,
+                                                changedevents, changedpaths)) {
+                            if (chain == 0)
+                                hl = handlinks.get(i).get(j).get(++k);
+                            continue;
+                        }
+
                         Coordinate[] pos = new Coordinate[num + 1];
                         double[] times = new double[num+1];
                         Curve hp = new SplineCurve();
@@ -927,6 +1112,73 @@ public class JMLPattern {
         }
     }
 
+    // Tests whether the hand curve spanning HandLinks first..last (inclusive)
+    // needs to be recalculated during an incremental layout.
+    protected boolean isHandChainChanged(ArrayList<HandLink> links, int first, int last,
+                    HashSet<JMLEvent> changedevents, HashSet<Path> changedpaths) {
+        if (changedevents == null)
+            return true;
+
+        for (int l = first; l <= last; l++) {
+            HandLink hl = links.get(l);
+            if (changedevents.contains(hl.getStartEvent()) ||
+                        changedevents.contains(hl.getEndEvent()))
+                return true;
+        }
+        VelocityRef vr = links.get(first).getStartVelocityRef();
+        if (vr != null && changedpaths.contains(vr.getPath()))
+            return true;
+        vr = links.get(last).getEndVelocityRef();
+        if (vr != null && changedpaths.contains(vr.getPath()))
+            return true;
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    // Incremental layout, used when the only changes since the last layout are
+    // to the positions of master events (see setEventPositionChanged()). The
+    // event list, juggler positions, and link structure are all unchanged, so
+    // we update the images of the changed events and then redo only the paths
+    // and hand curves that touch them.
+    // ------------------------------------------------------------------------
+
+    protected void layoutChangedEvents() throws JuggleExceptionInternal {
+        HashSet<JMLEvent> changedevents = new HashSet<JMLEvent>();
+
+        for (JMLEvent ev = eventlist; ev != null; ev = ev.getNext()) {
+            JMLEvent master = (ev.isMaster() ? ev : ev.getMaster());
+            if (!changedmasters.contains(master))
+                continue;
+
+            if (ev != master) {
+                // same as EventImages.makeEvent()
+                Coordinate c = master.getLocalCoordinate();
+                if (ev.getHand() != master.getHand())
+                    c.x = -c.x;
+                ev.setLocalCoordinate(c);
+            }
+            ev.setGlobalCoordinate(convertLocalToGlobal(ev.getLocalCoordinate(),
+                                    ev.getJuggler(), ev.getT()));
+            changedevents.add(ev);
+        }
+
+        HashSet<Path> changedpaths = new HashSet<Path>();
+
+        for (ArrayList<PathLink> links : pathlinks) {
+            for (PathLink pl : links) {
+                if (pl.isInHand())
+                    continue;
+                if (changedevents.contains(pl.getStartEvent()) ||
+                            changedevents.contains(pl.getEndEvent())) {
+                    pl.updatePath();
+                    changedpaths.add(pl.getPath());
+                }
+            }
+        }
+
+        layoutHandPaths(changedevents, changedpaths);
+    }
+
     // ------------------------------------------------------------------------
     // Methods used by animator to get prop and body locations at specified times.
     // ------------------------------------------------------------------------
@@ -1136,78 +1388,143 @@ public class JMLPattern {
         return 0.0;
     }
 
-    public Coordinate getPathMax(int path) {    // maximum of each coordinate
-        Coordinate result = null;
+    // ------------------------------------------------------------------------
+    // Step 7: find bounding boxes for the paths, hands, and jugglers over the
+    // course of the pattern. These are used by the animator to size the view.
+    // ------------------------------------------------------------------------
+
+    protected void calcBoundingBoxes() {
         double t1 = getLoopStartTime();
         double t2 = getLoopEndTime();
 
-        for (int i = 0; i < pathlinks.get(path - 1).size(); i++) {
-            PathLink pl = pathlinks.get(path - 1).get(i);
-            if (pl.isInHand())
-                result = Coordinate.max(result,
-                                        getHandMax(pl.getHoldingJuggler(),
-                                                   pl.getHoldingHand()));
-            else
-                result = Coordinate.max(result,
-                                        pl.getPath().getMax(t1, t2));
+        handmax = new Coordinate[getNumberOfJugglers()][2];
+        handmin = new Coordinate[getNumberOfJugglers()][2];
+        jugglermax = new Coordinate[getNumberOfJugglers()];
+        jugglermin = new Coordinate[getNumberOfJugglers()];
+
+        for (int i = 0; i < getNumberOfJugglers(); i++) {
+            for (int j = 0; j < 2; j++) {
+                for (HandLink hl : handlinks.get(i).get(j)) {
+                    Curve hp = hl.getHandCurve();
+                    if (hp != null) {
+                        handmax[i][j] = Coordinate.max(handmax[i][j], hp.getMax(t1, t2));
+                        handmin[i][j] = Coordinate.min(handmin[i][j], hp.getMin(t1, t2));
+                    }
+                }
+            }
+            jugglermax[i] = jugglercurve[i].getMax();
+            jugglermin[i] = jugglercurve[i].getMin();
         }
-        return result;
-    }
 
-    public Coordinate getPathMin(int path) {
-        Coordinate result = null;
-        double t1 = getLoopStartTime();
-        double t2 = getLoopEndTime();
+        Coordinate[] newpathmax = new Coordinate[getNumberOfPaths()];
+        pathmin = new Coordinate[getNumberOfPaths()];
 
-        for (int i = 0; i < pathlinks.get(path - 1).size(); i++) {
-            PathLink pl = pathlinks.get(path - 1).get(i);
-            if (pl.isInHand())
-                result = Coordinate.min(result,
-                                        getHandMin(pl.getHoldingJuggler(),
-                                                   pl.getHoldingHand()));
-            else
-                result = Coordinate.min(result,
-                                        pl.getPath().getMin(t1, t2));
+        for (int i = 0; i < getNumberOfPaths(); i++) {
+            for (PathLink pl : pathlinks.get(i)) {
+                if (pl.isInHand()) {
+                    int jug = pl.getHoldingJuggler() - 1;
+                    int han = HandLink.index(pl.getHoldingHand());
+                    newpathmax[i] = Coordinate.max(newpathmax[i], handmax[jug][han]);
+                    pathmin[i] = Coordinate.min(pathmin[i], handmin[jug][han]);
+                } else {
+                    newpathmax[i] = Coordinate.max(newpathmax[i], pl.getPath().getMax(t1, t2));
+                    pathmin[i] = Coordinate.min(pathmin[i], pl.getPath().getMin(t1, t2));
+                }
+            }
         }
-        return result;
+        pathmax = newpathmax;   // set last; non-null means boxes are valid
     }
 
-    public Coordinate getHandMax(int juggler, int hand) {
-        Coordinate result = null;
+    // ------------------------------------------------------------------------
+    // Step 8: find the times of all catches and bounces within the pattern
+    // loop, so the animator can play sounds without searching the PathLinks
+    // on every frame.
+    // ------------------------------------------------------------------------
+
+    protected void calcSoundTimes() {
         double t1 = getLoopStartTime();
         double t2 = getLoopEndTime();
-        int handnum = (hand == HandLink.LEFT_HAND) ? 0 : 1;
-
-        for (int i = 0; i < handlinks.get(juggler - 1).get(handnum).size(); i++) {
-            HandLink hl = handlinks.get(juggler - 1).get(handnum).get(i);
-            Curve hp = hl.getHandCurve();
-            if (hp != null)
-                result = Coordinate.max(result, hp.getMax(t1, t2));
+        ArrayList<Double> catches = new ArrayList<Double>();
+        ArrayList<Double> bounces = new ArrayList<Double>();
+
+        for (int i = 0; i < getNumberOfPaths(); i++) {
+            PathLink prev = null;
+            for (PathLink pl : pathlinks.get(i)) {
+                if (pl.isInHand() && prev != null && !prev.isInHand())
+                    catches.add(loopTime(pl.getStartEvent().getT(), t1, t2));
+                if (pl.getPath() instanceof BouncePath) {
+                    for (double t : ((BouncePath)pl.getPath()).getBounceTimes())
+                        bounces.add(loopTime(t, t1, t2));
+                }
+                prev = pl;
+            }
         }
-        return result;
+
+        catchtimes = toSortedArray(catches);
+        bouncetimes = toSortedArray(bounces);
     }
 
-    public Coordinate getHandMin(int juggler, int hand) {
-        Coordinate result = null;
-        double t1 = getLoopStartTime();
-        double t2 = getLoopEndTime();
-        int handnum = (hand == HandLink.LEFT_HAND) ? 0 : 1;
+    // Map a time into the range [t1, t2)
+    protected static double loopTime(double t, double t1, double t2) {
+        double loop = t2 - t1;
+        t = t1 + ((t - t1) % loop);
+        if (t < t1)
+            t += loop;
+        return (t >= t2 ? t1 : t);
+    }
 
-        for (int i = 0; i < handlinks.get(juggler - 1).get(handnum).size(); i++) {
-            HandLink hl = handlinks.get(juggler - 1).get(handnum).get(i);
-            Curve hp = hl.getHandCurve();
-            if (hp != null)
-                result = Coordinate.min(result, hp.getMin(t1, t2));
-        }
+    protected static double[] toSortedArray(ArrayList<Double> list) {
+        double[] result = new double[list.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = list.get(i);
+        Arrays.sort(result);
         return result;
     }
 
+    // Sorted times of catches and bounces within [loopStart, loopEnd). Each
+    // layout creates new arrays, so the returned ones are never changed.
+    public double[] getCatchTimes()     { return catchtimes; }
+    public double[] getBounceTimes()    { return bouncetimes; }
+
+    // Return a copy, so callers can't change the cached values
+    protected static Coordinate copyOf(Coordinate c) {
+        return (c == null ? null : new Coordinate(c));
+    }
+
+    public Coordinate getPathMax(int path) {    // maximum of each coordinate
+        if (pathmax == null)
+            calcBoundingBoxes();
+        return copyOf(pathmax[path - 1]);
+    }
+
+    public Coordinate getPathMin(int path) {
+        if (pathmax == null)
+            calcBoundingBoxes();
+        return copyOf(pathmin[path - 1]);
+    }
+
+    public Coordinate getHandMax(int juggler, int hand) {
+        if (pathmax == null)
+            calcBoundingBoxes();
+        return copyOf(handmax[juggler - 1][HandLink.index(hand)]);
+    }
+
+    public Coordinate getHandMin(int juggler, int hand) {
+        if (pathmax == null)
+            calcBoundingBoxes();
+        return copyOf(handmin[juggler - 1][HandLink.index(hand)]);
+    }
+
     public Coordinate getJugglerMax(int juggler) {
-        return jugglercurve[juggler - 1].getMax();
+        if (pathmax == null)
+            calcBoundingBoxes();
+        return copyOf(jugglermax[juggler - 1]);
     }
 
     public Coordinate getJugglerMin(int juggler) {
-        return jugglercurve[juggler - 1].getMin();
+        if (pathmax == null)
+            calcBoundingBoxes();
+        return copyOf(jugglermin[juggler - 1]);
     }
 
     public Permutation getPathPermutation() {
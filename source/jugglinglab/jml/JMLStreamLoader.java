@@ -0,0 +1,275 @@
+// JMLStreamLoader.java
+//
+// Copyright 2021 by Jack Boyce (jboyce@gmail.com)
+
+package jugglinglab.jml;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.text.MessageFormat;
+import java.util.*;
+import javax.xml.stream.*;
+import org.xml.sax.*;
+
+import jugglinglab.util.*;
+
+
+// Streaming loader for JML files, built on the StAX pull parser.
+//
+// JMLParser builds a JMLNode tree for the entire file, so loading a large
+// pattern list keeps a tree of nodes alive for every pattern in it. This
+// class reads a pattern list one <line> at a time instead, and hands back each
+// JML pattern as the UTF-8 text of its <pattern> element. That text is only
+// turned into a JMLNode tree (using JMLParser, with validation) when the
+// pattern is actually needed.
+
+public class JMLStreamLoader {
+    static final ResourceBundle errorstrings = jugglinglab.JugglingLab.errorstrings;
+
+    // Receives the contents of a pattern list as it is read.
+    public interface PatternListTarget {
+        public void setTitle(String title);
+
+        // `patternjml` is non-null only for lines in JML notation
+        public void addLine(String display, String animprefs, String notation,
+                            String anim, byte[] patternjml);
+    }
+
+
+    // Returns one of JMLParser.JML_PATTERN, JML_LIST, or JML_INVALID. Only
+    // the first two elements of the file are read.
+    public static int getFileType(Reader read) throws JuggleExceptionUser {
+        XMLStreamReader xr = null;
+
+        try {
+            xr = createReader(read);
+            if (!nextElement(xr) || !xr.getLocalName().equalsIgnoreCase("jml"))
+                return JMLParser.JML_INVALID;
+            if (!nextElement(xr))
+                return JMLParser.JML_INVALID;
+
+            String type = xr.getLocalName();
+            if (type.equalsIgnoreCase("pattern"))
+                return JMLParser.JML_PATTERN;
+            else if (type.equalsIgnoreCase("patternlist"))
+                return JMLParser.JML_LIST;
+            return JMLParser.JML_INVALID;
+        } catch (XMLStreamException xse) {
+            throw parseError(xse);
+        } finally {
+            close(xr);
+        }
+    }
+
+    // Reads a pattern list, passing its contents to `target`. Returns the JML
+    // version number of the file.
+    public static String readPatternList(Reader read, PatternListTarget target)
+                            throws JuggleExceptionUser {
+        XMLStreamReader xr = null;
+
+        try {
+            xr = createReader(read);
+            if (!nextElement(xr) || !xr.getLocalName().equalsIgnoreCase("jml"))
+                throw new JuggleExceptionUser(errorstrings.getString("Error_missing_JML_tag"));
+
+            String version = getAttribute(xr, "version");
+            if (version == null)
+                version = "1.0";
+
+            if (!nextElement(xr) || !xr.getLocalName().equalsIgnoreCase("patternlist"))
+                throw new JuggleExceptionUser(errorstrings.getString("Error_missing_patternlist_tag"));
+
+            int linenumber = 0;
+
+            while (true) {
+                int event = xr.next();
+                if (event == XMLStreamConstants.END_ELEMENT)
+                    break;      // end of <patternlist>
+                if (event != XMLStreamConstants.START_ELEMENT)
+                    continue;
+
+                String type = xr.getLocalName();
+                if (type.equalsIgnoreCase("title")) {
+                    target.setTitle(xr.getElementText().trim());
+                } else if (type.equalsIgnoreCase("line")) {
+                    linenumber++;
+                    readLine(xr, target, linenumber);
+                } else
+                    throw new JuggleExceptionUser(errorstrings.getString("Error_illegal_tag"));
+            }
+            return version;
+        } catch (XMLStreamException xse) {
+            throw parseError(xse);
+        } finally {
+            close(xr);
+        }
+    }
+
+    // Parses the text of a <pattern> element, as returned by readPatternList(),
+    // into a JMLNode tree suitable for the JMLPattern(JMLNode, String)
+    // constructor.
+    public static JMLNode parsePattern(byte[] patternjml, String version)
+                            throws JuggleExceptionUser {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < JMLDefs.jmlprefix.length; i++)
+            sb.append(JMLDefs.jmlprefix[i]).append('\n');
+        sb.append("<jml version=\"").append(JMLNode.xmlescape(version)).append("\">\n");
+        sb.append(new String(patternjml, StandardCharsets.UTF_8));
+        sb.append("\n</jml>\n");
+        for (int i = 0; i < JMLDefs.jmlsuffix.length; i++)
+            sb.append(JMLDefs.jmlsuffix[i]).append('\n');
+
+        try {
+            JMLParser parser = new JMLParser();
+            parser.parse(new StringReader(sb.toString()));
+            if (parser.getFileType() != JMLParser.JML_PATTERN)
+                throw new JuggleExceptionUser(errorstrings.getString("Error_invalid_JML"));
+            return parser.getTree().getChildNode(0);
+        } catch (SAXParseException spe) {
+            String template = errorstrings.getString("Error_parsing");
+            Object[] arguments = { new Integer(spe.getLineNumber()) };
+            throw new JuggleExceptionUser(MessageFormat.format(template, arguments));
+        } catch (SAXException se) {
+            throw new JuggleExceptionUser(se.getMessage());
+        } catch (IOException ioe) {
+            throw new JuggleExceptionUser(errorstrings.getString("Error_IO")+": "+ioe.getMessage());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    protected static XMLStreamReader createReader(Reader read) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // don't try to fetch the DTD; the JML DTD has no entities we need
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        return factory.createXMLStreamReader(read);
+    }
+
+    protected static void close(XMLStreamReader xr) {
+        if (xr == null)
+            return;
+        try {
+            xr.close();
+        } catch (XMLStreamException xse) {
+        }
+    }
+
+    protected static JuggleExceptionUser parseError(XMLStreamException xse) {
+        if (xse.getLocation() != null) {
+            String template = errorstrings.getString("Error_parsing");
+            Object[] arguments = { new Integer(xse.getLocation().getLineNumber()) };
+            return new JuggleExceptionUser(MessageFormat.format(template, arguments));
+        }
+        return new JuggleExceptionUser(xse.getMessage());
+    }
+
+    // Advances to the next start tag; returns false if the document ends first.
+    protected static boolean nextElement(XMLStreamReader xr) throws XMLStreamException {
+        while (xr.hasNext()) {
+            if (xr.next() == XMLStreamConstants.START_ELEMENT)
+                return true;
+        }
+        return false;
+    }
+
+    protected static String getAttribute(XMLStreamReader xr, String name) {
+        for (int i = 0; i < xr.getAttributeCount(); i++)
+            if (name.equalsIgnoreCase(xr.getAttributeLocalName(i)))
+                return xr.getAttributeValue(i);
+        return null;
+    }
+
+    // Reads a <line> element, with the reader positioned at its start tag.
+    protected static void readLine(XMLStreamReader xr, PatternListTarget target,
+                        int linenumber) throws XMLStreamException, JuggleExceptionUser {
+        String display = getAttribute(xr, "display");
+        if ((display == null) || display.equals(""))
+            display = " ";      // JList won't display empty strings
+        String animprefs = getAttribute(xr, "animprefs");
+        String notation = getAttribute(xr, "notation");
+
+        StringBuilder text = new StringBuilder();
+        byte[] patternjml = null;
+
+        while (true) {
+            int event = xr.next();
+            if (event == XMLStreamConstants.END_ELEMENT)
+                break;
+
+            switch (event) {
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    text.append(xr.getText());
+                    break;
+                case XMLStreamConstants.START_ELEMENT:
+                    if (patternjml == null && xr.getLocalName().equalsIgnoreCase("pattern"))
+                        patternjml = readElement(xr);
+                    else
+                        skipElement(xr);
+                    break;
+            }
+        }
+
+        String anim = null;
+        if (notation != null && notation.equalsIgnoreCase("JML")) {
+            if (patternjml == null) {
+                String template = errorstrings.getString("Error_missing_pattern");
+                Object[] arguments = { new Integer(linenumber) };
+                throw new JuggleExceptionUser(MessageFormat.format(template, arguments));
+            }
+        } else {
+            if (notation != null)
+                anim = text.toString().trim();
+            patternjml = null;
+        }
+
+        target.addLine(display, animprefs, notation, anim, patternjml);
+    }
+
+    // Returns the XML text of the element whose start tag the reader is on,
+    // leaving the reader on its end tag.
+    protected static byte[] readElement(XMLStreamReader xr) throws XMLStreamException {
+        StringBuilder sb = new StringBuilder();
+        int depth = 0;
+
+        while (true) {
+            switch (xr.getEventType()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    sb.append('<').append(xr.getLocalName());
+                    for (int i = 0; i < xr.getAttributeCount(); i++) {
+                        sb.append(' ').append(xr.getAttributeLocalName(i)).append("=\"");
+                        sb.append(JMLNode.xmlescape(xr.getAttributeValue(i))).append('"');
+                    }
+                    sb.append('>');
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    sb.append("</").append(xr.getLocalName()).append('>');
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    sb.append(JMLNode.xmlescape(xr.getText()));
+                    break;
+            }
+            if (depth == 0)
+                break;
+            xr.next();
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    protected static void skipElement(XMLStreamReader xr) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = xr.next();
+            if (event == XMLStreamConstants.START_ELEMENT)
+                depth++;
+            else if (event == XMLStreamConstants.END_ELEMENT)
+                depth--;
+        }
+    }
+}
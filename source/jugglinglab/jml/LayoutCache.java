@@ -0,0 +1,337 @@
+// LayoutCache.java
+//
+// Copyright 2021 by Jack Boyce (jboyce@gmail.com)
+
+package jugglinglab.jml;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+import jugglinglab.core.Constants;
+import jugglinglab.util.*;
+
+
+// Optional on-disk cache of laid-out event lists.
+//
+// For large patterns (many paths, jugglers, or symmetries) most of the time
+// in JMLPattern.layoutPattern() is spent in steps 1-2, extending the master
+// events into the full event list using the pattern's symmetries. This class
+// saves the result of those steps to a compact binary file, keyed by a hash
+// of everything they depend on, so that the next time the same pattern is
+// opened the event list can be read back (through a memory-mapped file)
+// rather than recomputed. The remaining layout steps are fast and are always
+// done normally.
+//
+// The cache is off unless a directory is given, either with
+// setDirectory() or the system property `jugglinglab.layoutcache`.
+
+public class LayoutCache {
+    protected static final int MAGIC = 0x4A4C4C43;     // "JLLC"
+    protected static final int FORMAT_VERSION = 1;
+
+    // don't bother caching patterns that lay out quickly anyway
+    protected static final long MIN_CACHE_MILLIS = 50L;
+
+    protected static Path cachedir;
+
+    static {
+        String dir = System.getProperty("jugglinglab.layoutcache");
+        if (dir != null && dir.length() > 0)
+            cachedir = Paths.get(dir);
+    }
+
+    public static synchronized void setDirectory(Path dir)  { cachedir = dir; }
+    public static synchronized Path getDirectory()          { return cachedir; }
+    public static boolean isEnabled()                       { return (getDirectory() != null); }
+
+    // ------------------------------------------------------------------------
+
+    // Returns the cache key for a pattern that has not been laid out yet, or
+    // null if the pattern can't be cached.
+    public static String getKey(JMLPattern pat) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            DataOutputStream dos = new DataOutputStream(new HashingOutputStream(md));
+
+            // everything steps 1-2 of layout depend on
+            dos.writeInt(FORMAT_VERSION);
+            dos.writeInt(pat.getNumberOfJugglers());
+            dos.writeInt(pat.getNumberOfPaths());
+            for (int i = 0; i < pat.getNumberOfSymmetries(); i++) {
+                JMLSymmetry sym = pat.getSymmetry(i);
+                dos.writeInt(sym.getType());
+                writeString(dos, sym.getJugglerPerm() == null ? null :
+                                 sym.getJugglerPerm().toString());
+                writeString(dos, sym.getPathPerm() == null ? null :
+                                 sym.getPathPerm().toString());
+                dos.writeDouble(sym.getDelay());
+            }
+            for (JMLEvent ev = pat.getEventList(); ev != null; ev = ev.getNext()) {
+                if (!ev.isMaster())
+                    return null;
+                writeEventData(dos, ev);
+            }
+            dos.close();
+
+            StringBuilder sb = new StringBuilder();
+            for (byte b : md.digest())
+                sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException nsae) {
+            return null;
+        } catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    // Read a cached event list into the pattern, in place of layout steps 1-2.
+    // Returns false if there is no usable cache entry.
+    public static boolean readEventList(JMLPattern pat, String key) {
+        Path file = getFile(key);
+        if (file == null || !Files.isRegularFile(file))
+            return false;
+
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+
+            if (buf.getInt() != MAGIC || buf.getInt() != FORMAT_VERSION)
+                return false;
+            int numjugglers = pat.getNumberOfJugglers();
+            int numpaths = pat.getNumberOfPaths();
+            if (buf.getInt() != numjugglers || buf.getInt() != numpaths)
+                return false;
+
+            boolean[][] vdhand = new boolean[numjugglers][2];
+            for (int i = 0; i < numjugglers; i++) {
+                vdhand[i][0] = (buf.get() != 0);
+                vdhand[i][1] = (buf.get() != 0);
+            }
+            boolean[] vdpath = new boolean[numpaths];
+            for (int i = 0; i < numpaths; i++)
+                vdpath[i] = (buf.get() != 0);
+
+            Permutation[] perms = new Permutation[buf.getInt()];
+            for (int i = 0; i < perms.length; i++) {
+                int[] mapping = new int[numpaths];
+                for (int j = 0; j < numpaths; j++)
+                    mapping[j] = buf.getInt();
+                perms[i] = Permutation.intern(new Permutation(numpaths, mapping, false));
+            }
+
+            int numevents = buf.getInt();
+            ArrayList<JMLEvent> events = new ArrayList<JMLEvent>(numevents);
+            int[] masterindex = new int[numevents];
+
+            for (int i = 0; i < numevents; i++) {
+                JMLEvent ev = new JMLEvent();
+                double x = buf.getDouble();
+                double y = buf.getDouble();
+                double z = buf.getDouble();
+                ev.setLocalCoordinate(new Coordinate(x, y, z));
+                ev.setT(buf.getDouble());
+                int juggler = buf.getInt();
+                ev.setHand(juggler, buf.getInt());
+                ev.delay = buf.getInt();
+                ev.delayunits = buf.getInt();
+                ev.calcpos = (buf.get() != 0);
+                masterindex[i] = buf.getInt();
+                ev.setPathPermFromMaster(perms[buf.getInt()]);
+
+                int numtrans = buf.getInt();
+                for (int j = 0; j < numtrans; j++) {
+                    int type = buf.getInt();
+                    int path = buf.getInt();
+                    String throwtype = readString(buf);
+                    String mod = readString(buf);
+                    ev.addTransition(new JMLTransition(type, path, throwtype, mod));
+                }
+                events.add(ev);
+            }
+            for (int i = 0; i < numevents; i++) {
+                if (masterindex[i] >= 0)
+                    events.get(i).setMaster(events.get(masterindex[i]));
+            }
+
+            pat.setEvents(events);
+            pat.hasVDHandJMLTransition = vdhand;
+            pat.hasVDPathJMLTransition = vdpath;
+            return true;
+        } catch (Exception e) {
+            // treat a damaged or unreadable file as a cache miss
+            if (Constants.DEBUG_LAYOUT)
+                System.out.println("LayoutCache: error reading " + file + ": " + e);
+            return false;
+        }
+    }
+
+    // Save the pattern's event list after layout steps 1-2. `millis` is the
+    // time those steps took.
+    public static void writeEventList(JMLPattern pat, String key, long millis) {
+        if (millis < MIN_CACHE_MILLIS)
+            return;
+        Path file = getFile(key);
+        if (file == null)
+            return;
+
+        ArrayList<JMLEvent> events = pat.eventarray;
+        HashMap<JMLEvent, Integer> eventindex = new HashMap<JMLEvent, Integer>();
+        for (int i = 0; i < events.size(); i++)
+            eventindex.put(events.get(i), i);
+
+        // Events share a small number of distinct path permutations, so store
+        // each one once
+        int numpaths = pat.getNumberOfPaths();
+        ArrayList<Permutation> perms = new ArrayList<Permutation>();
+        HashMap<Permutation, Integer> permindex = new HashMap<Permutation, Integer>();
+        int[] eventperm = new int[events.size()];
+
+        for (int i = 0; i < events.size(); i++) {
+            Permutation p = events.get(i).getPathPermFromMaster();
+            if (p == null || p.hasReverses() || p.getSize() != numpaths)
+                return;
+            Integer index = permindex.get(p);
+            if (index == null) {
+                index = perms.size();
+                perms.add(p);
+                permindex.put(p, index);
+            }
+            eventperm[i] = index;
+        }
+
+        Path temp = null;
+        try {
+            Files.createDirectories(file.getParent());
+            temp = Files.createTempFile(file.getParent(), "layout", ".tmp");
+
+            try (DataOutputStream dos = new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                dos.writeInt(MAGIC);
+                dos.writeInt(FORMAT_VERSION);
+                dos.writeInt(pat.getNumberOfJugglers());
+                dos.writeInt(numpaths);
+                for (int i = 0; i < pat.getNumberOfJugglers(); i++) {
+                    dos.writeByte(pat.hasVDHandJMLTransition[i][0] ? 1 : 0);
+                    dos.writeByte(pat.hasVDHandJMLTransition[i][1] ? 1 : 0);
+                }
+                for (int i = 0; i < numpaths; i++)
+                    dos.writeByte(pat.hasVDPathJMLTransition[i] ? 1 : 0);
+
+                dos.writeInt(perms.size());
+                for (Permutation p : perms) {
+                    for (int j = 0; j < numpaths; j++)
+                        dos.writeInt(p.getMapping(j + 1));
+                }
+
+                dos.writeInt(events.size());
+                for (int i = 0; i < events.size(); i++) {
+                    JMLEvent ev = events.get(i);
+                    dos.writeDouble(ev.x);
+                    dos.writeDouble(ev.y);
+                    dos.writeDouble(ev.z);
+                    dos.writeDouble(ev.getT());
+                    dos.writeInt(ev.getJuggler());
+                    dos.writeInt(ev.getHand());
+                    dos.writeInt(ev.delay);
+                    dos.writeInt(ev.delayunits);
+                    dos.writeByte(ev.calcpos ? 1 : 0);
+                    dos.writeInt(ev.isMaster() ? -1 : eventindex.get(ev.getMaster()));
+                    dos.writeInt(eventperm[i]);
+
+                    dos.writeInt(ev.getNumberOfTransitions());
+                    for (int j = 0; j < ev.getNumberOfTransitions(); j++) {
+                        JMLTransition tr = ev.getTransition(j);
+                        dos.writeInt(tr.getType());
+                        dos.writeInt(tr.getPath());
+                        writeString(dos, tr.getThrowType());
+                        writeString(dos, tr.getMod());
+                    }
+                }
+            }
+
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            temp = null;
+        } catch (Exception e) {
+            // the cache is only an optimization, so carry on without it
+            if (Constants.DEBUG_LAYOUT)
+                System.out.println("LayoutCache: error writing " + file + ": " + e);
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ioe) {
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    protected static Path getFile(String key) {
+        Path dir = getDirectory();
+        return (dir == null ? null : dir.resolve(key + ".jlc"));
+    }
+
+    protected static void writeEventData(DataOutputStream dos, JMLEvent ev) throws IOException {
+        dos.writeDouble(ev.x);
+        dos.writeDouble(ev.y);
+        dos.writeDouble(ev.z);
+        dos.writeDouble(ev.getT());
+        dos.writeInt(ev.getJuggler());
+        dos.writeInt(ev.getHand());
+        dos.writeByte(ev.calcpos ? 1 : 0);
+        dos.writeInt(ev.getNumberOfTransitions());
+        for (int i = 0; i < ev.getNumberOfTransitions(); i++) {
+            JMLTransition tr = ev.getTransition(i);
+            dos.writeInt(tr.getType());
+            dos.writeInt(tr.getPath());
+            writeString(dos, tr.getThrowType());
+            writeString(dos, tr.getMod());
+        }
+    }
+
+    protected static void writeString(DataOutputStream dos, String s) throws IOException {
+        if (s == null) {
+            dos.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        dos.writeInt(b.length);
+        dos.write(b);
+    }
+
+    protected static String readString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0)
+            return null;
+        byte[] b = new byte[length];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    // Feeds bytes written to it into a MessageDigest
+    protected static class HashingOutputStream extends OutputStream {
+        protected MessageDigest md;
+
+        public HashingOutputStream(MessageDigest md) {
+            this.md = md;
+        }
+
+        @Override
+        public void write(int b) {
+            md.update((byte)b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            md.update(b, off, len);
+        }
+    }
+}
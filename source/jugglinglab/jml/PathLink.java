@@ -41,6 +41,17 @@ public class PathLink {
         this.inhand = false;
     }
 
+    // Recalculate the prop path after the endpoint events have moved. This
+    // reuses the existing Path object, so VelocityRefs pointing to it remain
+    // valid.
+    public void updatePath() throws JuggleExceptionInternal {
+        if (inhand || proppath == null)
+            return;
+        proppath.setStart(startevent.getGlobalCoordinate(), startevent.getT());
+        proppath.setEnd(endevent.getGlobalCoordinate(), endevent.getT());
+        proppath.calcPath();
+    }
+
     public void setInHand(int juggler, int hand) {
         this.inhand = true;
         this.juggler = juggler;
@@ -17,6 +17,8 @@ public class VelocityRef {
         this.start = start;
     }
 
+    public Path getPath()   { return pp; }
+
     public Coordinate getVelocity() {
         if (start)
             return pp.getStartVelocity();
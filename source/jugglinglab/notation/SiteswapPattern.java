@@ -116,7 +116,11 @@ public class SiteswapPattern extends MHNPattern {
             if (Constants.DEBUG_PARSING) {
                 System.out.println("Parsing pattern \"" + pattern + "\"");
             }
-            tree = SiteswapParser.parsePattern(pattern);
+            // try the fast parser first; it handles the common cases such as
+            // generator output, and returns null for anything else
+            tree = SiteswapFastParser.parsePattern(pattern);
+            if (tree == null)
+                tree = SiteswapParser.parsePattern(pattern);
             if (Constants.DEBUG_PARSING) {
                 System.out.println("Parse tree:\n");
                 System.out.println(tree.toString());
@@ -347,6 +351,13 @@ public class SiteswapPattern extends MHNPattern {
                 break;
             case SiteswapTreeItem.TYPE_GROUPED_PATTERN:
                 // Contains only a Pattern type (single child)
+                //
+                // The repeats aren't copied out in the tree. Instead we keep
+                // prototype copies of the child pattern, one for each distinct
+                // way its throws get assigned to hands, and doSecondPass()
+                // reuses them for each repeat. Without hand specifiers inside
+                // the group, hand assignments only depend on the parity of the
+                // starting beat, so we need at most two prototypes.
 
                 /*
                 if (sti.repeats > 20)
@@ -360,7 +371,13 @@ public class SiteswapPattern extends MHNPattern {
                 }
                 child.beatnum = sti.beatnum;
                 doFirstPass(child);
-                for (int i = 1; i < sti.repeats; i++) {
+
+                int prototypes = sti.repeats;
+                if (!child.containsType(SiteswapTreeItem.TYPE_HAND_SPEC) &&
+                            !child.containsType(SiteswapTreeItem.TYPE_WILDCARD))
+                    prototypes = Math.min(sti.repeats, (child.beats % 2 == 0) ? 1 : 2);
+
+                for (int i = 1; i < prototypes; i++) {
                     SiteswapTreeItem child2 = (SiteswapTreeItem)(child.clone());
                     sti.addChild(child2);
                     child2.beatnum = sti.beatnum + i * child.beats;
@@ -519,6 +536,16 @@ public class SiteswapPattern extends MHNPattern {
                 break;
 
             case SiteswapTreeItem.TYPE_GROUPED_PATTERN:
+                // Children are prototypes for the repeats; see doFirstPass()
+                int prototypes = sti.getNumberOfChildren();
+                int repbeats = sti.getChild(0).beats;
+                for (int i = 0; i < Math.max(sti.repeats, prototypes); i++) {
+                    child = sti.getChild(i % prototypes);
+                    doSecondPass(child, switchhands,
+                                 beatoffset + (i - i % prototypes) * repbeats);
+                }
+                break;
+
             case SiteswapTreeItem.TYPE_SOLO_SEQUENCE:
             case SiteswapTreeItem.TYPE_SOLO_PAIRED_THROW:
             case SiteswapTreeItem.TYPE_PASSING_SEQUENCE:
@@ -0,0 +1,356 @@
+// SiteswapFastParser.java
+//
+// Copyright 2021 by Jack Boyce (jboyce@gmail.com)
+
+package jugglinglab.notation.ssparser;
+
+
+// Hand-written recursive descent parser for the subset of siteswap notation
+// that the generator emits: async and sync solo patterns, multiplexing, and
+// passing (including `p<n>` destinations and `/` separators).
+//
+// It works directly on the characters of the input string, so it avoids the
+// per-character Token objects and buffered stream of the JavaCC-generated
+// SiteswapParser. The tree it builds is identical to the one SiteswapParser
+// would build for the same input.
+//
+// Anything outside the supported subset (grouped repeats, hand specifiers,
+// modifiers, wildcards, '!', '{...}', or any syntax error) causes
+// parsePattern() to return null, and the caller should then fall back to
+// SiteswapParser. That way all error reporting stays in one place.
+
+public class SiteswapFastParser {
+    private final String str;
+    private final int len;
+    private int pos;
+
+    private int jugglers;
+    private int current_juggler;
+    private int current_beat;
+    private int current_beat_sub;
+
+
+    private SiteswapFastParser(String str) {
+        this.str = str;
+        this.len = str.length();
+        this.pos = 0;
+        this.jugglers = -1;
+    }
+
+    // Returns the parse tree, or null if the pattern isn't in the subset we
+    // handle (in which case use SiteswapParser.parsePattern()).
+    public static SiteswapTreeItem parsePattern(String pat) {
+        if (pat == null)
+            return null;
+        return (new SiteswapFastParser(pat)).makeTree();
+    }
+
+    //--------------------------------------------------------------------------
+    // Productions; these follow the same-named ones in SiteswapParser.jj
+    //--------------------------------------------------------------------------
+
+    private SiteswapTreeItem makeTree() {
+        skipSpaces();
+        SiteswapTreeItem b = pattern();
+        if (b == null || pos != len)
+            return null;
+        return b;
+    }
+
+    private SiteswapTreeItem pattern() {
+        SiteswapTreeItem b = new SiteswapTreeItem(SiteswapTreeItem.TYPE_PATTERN);
+
+        while (pos < len) {
+            char ch = str.charAt(pos);
+            SiteswapTreeItem c = null;
+
+            if (ch == '<')
+                c = passingSequence();
+            else if (isSoloStart(ch))
+                c = soloSequence();
+            else
+                break;
+
+            if (c == null)
+                return null;
+            b.addChild(c);
+        }
+
+        if (b.getNumberOfChildren() == 0)
+            return null;
+
+        if (pos < len && str.charAt(pos) == '*') {
+            pos++;
+            b.switchrepeat = true;
+        }
+
+        b.jugglers = jugglers;
+        return b;
+    }
+
+    private SiteswapTreeItem soloSequence() {
+        SiteswapTreeItem b = new SiteswapTreeItem(SiteswapTreeItem.TYPE_SOLO_SEQUENCE);
+        current_juggler = 1;
+        current_beat = 0;
+
+        while (pos < len && isSoloStart(str.charAt(pos))) {
+            SiteswapTreeItem c;
+
+            if (str.charAt(pos) == '(') {
+                c = pairedThrow(SiteswapTreeItem.TYPE_SOLO_PAIRED_THROW,
+                                SiteswapTreeItem.TYPE_SOLO_MULTI_THROW,
+                                SiteswapTreeItem.TYPE_SOLO_SINGLE_THROW,
+                                current_beat);
+                if (c == null)
+                    return null;
+                current_beat += 2;
+                b.addChild(c);
+                skipSpaces();
+            } else {
+                c = multiThrow(SiteswapTreeItem.TYPE_SOLO_MULTI_THROW,
+                               SiteswapTreeItem.TYPE_SOLO_SINGLE_THROW,
+                               current_beat);
+                if (c == null)
+                    return null;
+                current_beat++;
+                b.addChild(c);
+            }
+        }
+
+        if (jugglers == -1)
+            jugglers = 1;
+        else if (jugglers != 1)
+            return null;
+        b.source_juggler = 1;
+        b.beats = current_beat;
+        return b;
+    }
+
+    private SiteswapTreeItem passingSequence() {
+        SiteswapTreeItem b = new SiteswapTreeItem(SiteswapTreeItem.TYPE_PASSING_SEQUENCE);
+        current_beat = 0;
+
+        while (pos < len && str.charAt(pos) == '<') {
+            SiteswapTreeItem c = passingGroup();
+            if (c == null)
+                return null;
+            b.jugglers = c.jugglers;
+            b.addChild(c);
+        }
+
+        b.beats = current_beat;
+        return b;
+    }
+
+    private SiteswapTreeItem passingGroup() {
+        SiteswapTreeItem b = new SiteswapTreeItem(SiteswapTreeItem.TYPE_PASSING_GROUP);
+        current_juggler = 1;
+
+        pos++;  // '<'
+        skipSpaces();
+        SiteswapTreeItem c = passingThrows();
+        if (c == null)
+            return null;
+        b.beats = c.beats;
+        b.addChild(c);
+        current_juggler++;
+
+        while (pos < len && str.charAt(pos) == '|') {
+            pos++;
+            skipSpaces();
+            c = passingThrows();
+            if (c == null || c.beats != b.beats)
+                return null;
+            b.addChild(c);
+            current_juggler++;
+        }
+
+        if (pos == len || str.charAt(pos) != '>')
+            return null;
+        pos++;
+        skipSpaces();
+
+        b.jugglers = current_juggler - 1;
+        if (jugglers == -1)
+            jugglers = b.jugglers;
+        else if (b.jugglers != jugglers)
+            return null;
+        b.seq_beatnum = current_beat;
+        current_beat += b.beats;
+        return b;
+    }
+
+    private SiteswapTreeItem passingThrows() {
+        SiteswapTreeItem b = new SiteswapTreeItem(SiteswapTreeItem.TYPE_PASSING_THROWS);
+        current_beat_sub = 0;
+
+        do {
+            if (pos == len)
+                return null;
+
+            SiteswapTreeItem c;
+            char ch = str.charAt(pos);
+
+            if (ch == '(') {
+                c = pairedThrow(SiteswapTreeItem.TYPE_PASSING_PAIRED_THROW,
+                                SiteswapTreeItem.TYPE_PASSING_MULTI_THROW,
+                                SiteswapTreeItem.TYPE_PASSING_SINGLE_THROW,
+                                current_beat + current_beat_sub);
+                if (c == null)
+                    return null;
+                current_beat_sub += 2;
+                skipSpaces();
+                b.addChild(c);
+            } else if (isSoloStart(ch)) {
+                c = multiThrow(SiteswapTreeItem.TYPE_PASSING_MULTI_THROW,
+                               SiteswapTreeItem.TYPE_PASSING_SINGLE_THROW,
+                               current_beat + current_beat_sub);
+                if (c == null)
+                    return null;
+                current_beat_sub++;
+                b.addChild(c);
+            } else
+                return null;
+        } while (pos < len && isSoloStart(str.charAt(pos)));
+
+        b.source_juggler = current_juggler;
+        b.beats = current_beat_sub;
+        b.seq_beatnum = current_beat;
+        return b;
+    }
+
+    // Solo or passing paired throw, e.g. `(4,2x)`
+    private SiteswapTreeItem pairedThrow(int type, int multitype, int singletype,
+                                         int seq_beatnum) {
+        SiteswapTreeItem b = new SiteswapTreeItem(type);
+
+        pos++;  // '('
+        skipSpaces();
+        SiteswapTreeItem c = multiThrow(multitype, singletype, seq_beatnum);
+        if (c == null)
+            return null;
+        b.addChild(c);
+
+        if (pos == len || str.charAt(pos) != ',')
+            return null;
+        pos++;
+        skipSpaces();
+        c = multiThrow(multitype, singletype, seq_beatnum);
+        if (c == null)
+            return null;
+        b.addChild(c);
+
+        if (pos == len || str.charAt(pos) != ')')
+            return null;
+        pos++;
+
+        b.source_juggler = current_juggler;
+        b.seq_beatnum = seq_beatnum;
+        return b;
+    }
+
+    // Solo or passing multi throw, e.g. `3` or `[34]`
+    private SiteswapTreeItem multiThrow(int type, int singletype, int seq_beatnum) {
+        SiteswapTreeItem b = new SiteswapTreeItem(type);
+
+        if (pos == len)
+            return null;
+
+        if (str.charAt(pos) == '[') {
+            pos++;
+            skipSpaces();
+            do {
+                SiteswapTreeItem c = singleThrow(singletype, seq_beatnum);
+                if (c == null)
+                    return null;
+                b.addChild(c);
+                skipSpaces();
+            } while (pos < len && str.charAt(pos) != ']');
+
+            if (pos == len)
+                return null;
+            pos++;
+        } else {
+            SiteswapTreeItem c = singleThrow(singletype, seq_beatnum);
+            if (c == null)
+                return null;
+            b.addChild(c);
+        }
+        skipSpaces();
+
+        b.source_juggler = current_juggler;
+        b.seq_beatnum = seq_beatnum;
+        return b;
+    }
+
+    private SiteswapTreeItem singleThrow(int type, int seq_beatnum) {
+        SiteswapTreeItem b = new SiteswapTreeItem(type);
+
+        if (pos == len)
+            return null;
+        char ch = str.charAt(pos);
+        if (ch == 'p')
+            b.value = 25;
+        else if (ch == 'x')
+            b.value = 33;
+        else if (isNumber(ch) || isLetter(ch))
+            b.value = Character.digit(ch, 36);
+        else
+            return null;
+        pos++;
+
+        if (pos < len && str.charAt(pos) == 'x') {
+            pos++;
+            b.x = true;
+        }
+
+        int dest = current_juggler;
+        if (type == SiteswapTreeItem.TYPE_PASSING_SINGLE_THROW &&
+                    pos < len && str.charAt(pos) == 'p') {
+            pos++;
+            dest = current_juggler + 1;
+
+            if (pos < len && isNumber(str.charAt(pos))) {
+                int start = pos;
+                while (pos < len && isNumber(str.charAt(pos)))
+                    pos++;
+                try {
+                    dest = Integer.parseInt(str.substring(start, pos));
+                } catch (NumberFormatException nfe) {
+                    dest = -1;
+                }
+            }
+        }
+
+        if (pos < len && str.charAt(pos) == '/')
+            pos++;
+
+        b.source_juggler = current_juggler;
+        b.dest_juggler = dest;
+        b.seq_beatnum = seq_beatnum;
+        return b;
+    }
+
+    //--------------------------------------------------------------------------
+    // Character classes; these match the tokens in SiteswapParser.jj
+    //--------------------------------------------------------------------------
+
+    private void skipSpaces() {
+        while (pos < len && str.charAt(pos) == ' ')
+            pos++;
+    }
+
+    private static boolean isNumber(char ch) {
+        return (ch >= '0' && ch <= '9');
+    }
+
+    private static boolean isLetter(char ch) {
+        return (ch >= 'a' && ch <= 'z' && ch != 'p' && ch != 'x');
+    }
+
+    // Can `ch` start a solo (or passing) multi throw or paired throw?
+    private static boolean isSoloStart(char ch) {
+        return (isNumber(ch) || isLetter(ch) || ch == 'p' || ch == 'x' ||
+                ch == '[' || ch == '(');
+    }
+}
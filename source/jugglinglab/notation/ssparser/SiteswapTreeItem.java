@@ -70,6 +70,17 @@ public class SiteswapTreeItem {
         return children.size();
     }
 
+    // Is there an item of the given type anywhere in this subtree?
+    public boolean containsType(int type) {
+        if (this.type == type)
+            return true;
+        for (int i = 0; i < getNumberOfChildren(); i++) {
+            if (getChild(i).containsType(type))
+                return true;
+        }
+        return false;
+    }
+
     public Object clone() {
         SiteswapTreeItem result = new SiteswapTreeItem(this.type);
 
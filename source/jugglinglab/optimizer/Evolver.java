@@ -0,0 +1,393 @@
+// Evolver.java
+//
+// Copyright 2021 by Jack Boyce (jboyce@gmail.com)
+
+package jugglinglab.optimizer;
+
+import java.io.*;
+import java.text.MessageFormat;
+import java.util.*;
+import java.util.concurrent.*;
+
+import jugglinglab.core.Constants;
+import jugglinglab.jml.*;
+import jugglinglab.util.*;
+import jugglinglab.view.Mutator;
+
+
+// Headless evolutionary search for pattern variations.
+//
+// Starting from a single pattern, each generation breeds a population of
+// mutants using Mutator (the same mutations SelectionView offers to the user),
+// lays them out and scores them with a Fitness function. The best few of each
+// generation survive unchanged into the next (elitism) and the remainder are
+// mutants of parents picked by tournament selection.
+//
+// Mutation and scoring run in parallel on a thread pool. Each mutant gets its
+// own Random seeded from the overall seed, the generation, and its position
+// in the population, so a run is reproducible regardless of how the work is
+// divided among threads.
+
+public class Evolver {
+    static final ResourceBundle guistrings = jugglinglab.JugglingLab.guistrings;
+    static final ResourceBundle errorstrings = jugglinglab.JugglingLab.errorstrings;
+
+    // Scores a pattern; higher is better. Implementations are called from
+    // several threads at once, each with a different pattern.
+    public interface Fitness {
+        // return Double.NEGATIVE_INFINITY to reject a pattern entirely
+        public double getFitness(JMLPattern pat) throws JuggleExceptionUser,
+                                                        JuggleExceptionInternal;
+    }
+
+    // Default fitness: the minimum throw margin from MarginEquations, less a
+    // penalty proportional to the maximum hand speed (in cm/sec).
+    public static class MarginFitness implements Fitness {
+        protected static final int HAND_SAMPLES = 100;  // per loop, per hand
+
+        protected double speedweight;
+
+        public MarginFitness(double speedweight) {
+            this.speedweight = speedweight;
+        }
+
+        @Override
+        public double getFitness(JMLPattern pat) throws JuggleExceptionUser,
+                                                        JuggleExceptionInternal {
+            MarginEquations me = new MarginEquations(pat);
+            double fitness = me.getMargin();
+            if (speedweight != 0.0)
+                fitness -= speedweight * getMaxHandSpeed(pat);
+            return fitness;
+        }
+
+        public static double getMaxHandSpeed(JMLPattern pat) throws JuggleExceptionInternal {
+            double t1 = pat.getLoopStartTime();
+            double dt = (pat.getLoopEndTime() - t1) / HAND_SAMPLES;
+            double maxspeed = 0.0;
+            Coordinate c1 = new Coordinate();
+            Coordinate c2 = new Coordinate();
+
+            for (int j = 1; j <= pat.getNumberOfJugglers(); j++) {
+                for (int h = 0; h < 2; h++) {
+                    int hand = (h == 0 ? HandLink.LEFT_HAND : HandLink.RIGHT_HAND);
+                    pat.getHandCoordinate(j, hand, t1, c1);
+                    for (int i = 1; i <= HAND_SAMPLES; i++) {
+                        double t = (i == HAND_SAMPLES ? t1 : t1 + i * dt);
+                        pat.getHandCoordinate(j, hand, t, c2);
+                        double dx = c2.x - c1.x;
+                        double dy = c2.y - c1.y;
+                        double dz = c2.z - c1.z;
+                        maxspeed = Math.max(maxspeed, Math.sqrt(dx*dx + dy*dy + dz*dz) / dt);
+                        Coordinate temp = c1;
+                        c1 = c2;
+                        c2 = temp;
+                    }
+                }
+            }
+            return maxspeed;
+        }
+    }
+
+    // A scored member of the population
+    public static class Individual implements Comparable<Individual> {
+        protected JMLPattern pat;
+        protected double fitness;
+
+        public Individual(JMLPattern pat, double fitness) {
+            this.pat = pat;
+            this.fitness = fitness;
+        }
+
+        public JMLPattern getPattern()  { return pat; }
+        public double getFitness()      { return fitness; }
+
+        // sort best first
+        @Override
+        public int compareTo(Individual ind) {
+            return Double.compare(ind.fitness, fitness);
+        }
+    }
+
+    // Receives a report at the end of each generation
+    public interface ProgressListener {
+        public void generationDone(int generation, Individual best, long evaluations);
+    }
+
+
+    protected Fitness fitness;
+    protected int populationsize = 50;
+    protected int elitecount = 5;
+    protected int tournamentsize = 3;
+    protected int threads = Runtime.getRuntime().availableProcessors();
+    protected long seed = 0L;
+
+    protected ArrayList<Individual> population;
+    protected long evaluations;
+
+
+    public Evolver(Fitness fitness) {
+        this.fitness = fitness;
+    }
+
+    public void setPopulationSize(int n)    { populationsize = Math.max(n, 2); }
+    public void setEliteCount(int n)        { elitecount = Math.max(n, 0); }
+    public void setThreads(int n)           { threads = Math.max(n, 1); }
+    public void setSeed(long seed)          { this.seed = seed; }
+
+    public long getEvaluations()            { return evaluations; }
+
+    // Run the search for a number of generations, starting from `start` (which
+    // is not changed). Returns the final population, best first.
+    public ArrayList<Individual> evolve(JMLPattern start, int generations,
+                        ProgressListener listener) throws JuggleExceptionUser,
+                        JuggleExceptionInternal, JuggleExceptionInterrupted {
+        JMLPattern startcopy = copyPattern(start);
+        startcopy.layoutPattern();
+        double f = fitness.getFitness(startcopy);
+        evaluations = 1;
+
+        population = new ArrayList<Individual>();
+        population.add(new Individual(startcopy, f));
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Evolver");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        try {
+            for (int gen = 1; gen <= generations; gen++) {
+                population = nextGeneration(gen, pool);
+                if (listener != null)
+                    listener.generationDone(gen, population.get(0), evaluations);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return population;
+    }
+
+    // ------------------------------------------------------------------------
+
+    protected ArrayList<Individual> nextGeneration(int gen, ExecutorService pool)
+                        throws JuggleExceptionUser, JuggleExceptionInternal,
+                        JuggleExceptionInterrupted {
+        // pick parents here in a single thread, so the choices depend only on
+        // the seed
+        Random selector = new Random(mixSeed(seed, gen, -1));
+        int elite = Math.min(elitecount, population.size());
+        int children = populationsize - elite;
+
+        ArrayList<Future<Individual>> results = new ArrayList<Future<Individual>>();
+        for (int i = 0; i < children; i++) {
+            final Individual parent = selectParent(selector);
+            final Random random = new Random(mixSeed(seed, gen, i));
+            results.add(pool.submit(new Callable<Individual>() {
+                @Override
+                public Individual call() throws JuggleExceptionUser, JuggleExceptionInternal {
+                    return breed(parent, random);
+                }
+            }));
+        }
+
+        ArrayList<Individual> next = new ArrayList<Individual>();
+        for (int i = 0; i < elite; i++)
+            next.add(population.get(i));
+
+        try {
+            for (Future<Individual> result : results) {
+                Individual child = result.get();
+                evaluations++;
+                if (child != null)
+                    next.add(child);
+            }
+        } catch (InterruptedException ie) {
+            throw new JuggleExceptionInterrupted();
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof JuggleExceptionUser)
+                throw (JuggleExceptionUser)cause;
+            if (cause instanceof JuggleExceptionInternal)
+                throw (JuggleExceptionInternal)cause;
+            throw new JuggleExceptionInternal("Evolver: " + cause);
+        }
+
+        // stable sort, so ties keep a reproducible order
+        Collections.sort(next);
+        return next;
+    }
+
+    protected Individual selectParent(Random selector) {
+        Individual best = null;
+        for (int i = 0; i < tournamentsize; i++) {
+            Individual ind = population.get(selector.nextInt(population.size()));
+            if (best == null || ind.fitness > best.fitness)
+                best = ind;
+        }
+        return best;
+    }
+
+    // Returns null if the mutant can't be laid out or is rejected by the
+    // fitness function.
+    protected Individual breed(Individual parent, Random random)
+                        throws JuggleExceptionInternal {
+        JMLPattern mutant = new Mutator(random).mutatePattern(parent.pat);
+        if (mutant == null)
+            return null;
+        try {
+            mutant.layoutPattern();
+            double f = fitness.getFitness(mutant);
+            if (Double.isNaN(f) || f == Double.NEGATIVE_INFINITY)
+                return null;
+            return new Individual(mutant, f);
+        } catch (JuggleExceptionUser jeu) {
+            // mutation made an invalid pattern
+            if (Constants.DEBUG_OPTIMIZE)
+                System.out.println("Evolver: rejected mutant: " + jeu.getMessage());
+            return null;
+        }
+    }
+
+    // Combine the run seed with a generation and index, so each mutant gets
+    // an independent stream of random numbers
+    protected static long mixSeed(long seed, int gen, int index) {
+        long h = seed * 0x9E3779B97F4A7C15L + gen;
+        h = h * 0xBF58476D1CE4E5B9L + index;
+        h ^= (h >>> 31);
+        return h;
+    }
+
+    protected static JMLPattern copyPattern(JMLPattern pat) throws JuggleExceptionInternal {
+        JMLPattern copy = (JMLPattern)pat.clone();
+        if (copy == null)
+            throw new JuggleExceptionInternal("Evolver: could not copy pattern");
+        return copy;
+    }
+
+    // ------------------------------------------------------------------------
+    //   Command line interface
+    // ------------------------------------------------------------------------
+
+    // Run from the command line. Options:
+    //
+    //   -generations <n>   number of generations (default 100)
+    //   -population <n>    population size (default 50)
+    //   -elite <n>         number of best patterns kept each generation (default 5)
+    //   -threads <n>       worker threads (default: number of processors)
+    //   -seed <n>          random seed (default 0)
+    //   -speedweight <w>   fitness penalty per cm/sec of hand speed (default 0)
+    //   -count <n>         number of best patterns to output (default 10)
+    //   -progress          report each generation's best fitness on stderr
+    //
+    // The best patterns are written to `ps` as a JML pattern list.
+    public static void runEvolverCLI(JMLPattern pat, String[] args, PrintStream ps) {
+        try {
+            int generations = 100;
+            int count = 10;
+            double speedweight = 0.0;
+            boolean progress = false;
+            Evolver ev = new Evolver(null);
+
+            for (int i = 0; i < args.length; i++) {
+                String opt = args[i];
+                if (opt.equals("-progress")) {
+                    progress = true;
+                    continue;
+                }
+                if (i == args.length - 1) {
+                    String template = errorstrings.getString("Error_missing_option_value");
+                    Object[] arguments = { opt };
+                    throw new JuggleExceptionUser(MessageFormat.format(template, arguments));
+                }
+                String value = args[++i];
+
+                try {
+                    if (opt.equals("-generations"))
+                        generations = Integer.parseInt(value);
+                    else if (opt.equals("-population"))
+                        ev.setPopulationSize(Integer.parseInt(value));
+                    else if (opt.equals("-elite"))
+                        ev.setEliteCount(Integer.parseInt(value));
+                    else if (opt.equals("-threads"))
+                        ev.setThreads(Integer.parseInt(value));
+                    else if (opt.equals("-seed"))
+                        ev.setSeed(Long.parseLong(value));
+                    else if (opt.equals("-speedweight"))
+                        speedweight = Double.parseDouble(value);
+                    else if (opt.equals("-count"))
+                        count = Integer.parseInt(value);
+                    else {
+                        String template = errorstrings.getString("Error_unrecognized_option");
+                        Object[] arguments = { opt };
+                        throw new JuggleExceptionUser(MessageFormat.format(template, arguments));
+                    }
+                } catch (NumberFormatException nfe) {
+                    String template = errorstrings.getString("Error_number_format");
+                    Object[] arguments = { opt.substring(1) };
+                    throw new JuggleExceptionUser(MessageFormat.format(template, arguments));
+                }
+            }
+
+            if (pat.getTitle() == null)
+                pat.setTitle("Pattern");
+            ev.fitness = new MarginFitness(speedweight);
+
+            ProgressListener listener = null;
+            if (progress) {
+                listener = new ProgressListener() {
+                    @Override
+                    public void generationDone(int generation, Individual best, long evaluations) {
+                        System.err.println("generation " + generation + ": best fitness " +
+                                           best.getFitness() + " (" + evaluations + " patterns)");
+                    }
+                };
+            }
+
+            ArrayList<Individual> result = ev.evolve(pat, generations, listener);
+
+            writeResults(result, count, pat.getTitle(), new PrintWriter(ps));
+        } catch (JuggleExceptionUser jeu) {
+            System.out.println(errorstrings.getString("Error")+": "+jeu.getMessage());
+        } catch (JuggleExceptionInternal jei) {
+            System.out.println("Internal Error: " + jei.getMessage());
+        } catch (IOException ioe) {
+            System.out.println(errorstrings.getString("Error")+": "+ioe.getMessage());
+        }
+    }
+
+    // Write the best `count` patterns as a JML pattern list
+    public static void writeResults(ArrayList<Individual> result, int count,
+                        String title, PrintWriter write) throws IOException,
+                        JuggleExceptionUser {
+        for (int i = 0; i < JMLDefs.jmlprefix.length; i++)
+            write.println(JMLDefs.jmlprefix[i]);
+        write.println("<jml version=\"" + JMLDefs.default_JML_on_save + "\">");
+        write.println("<patternlist>");
+        write.println("<title>" + JMLNode.xmlescape(title) + "</title>");
+
+        for (int i = 0; i < Math.min(count, result.size()); i++) {
+            Individual ind = result.get(i);
+            String display = title + " (" + String.format("%.4f", ind.getFitness()) + ")";
+            write.println("<line display=\"" + JMLNode.xmlescape(display) + "\" notation=\"jml\">");
+
+            JMLParser parser = new JMLParser();
+            try {
+                parser.parse(new StringReader(ind.getPattern().toString()));
+            } catch (org.xml.sax.SAXException se) {
+                throw new JuggleExceptionUser(se.getMessage());
+            }
+            parser.getTree().getChildNode(0).writeNode(write, 0);
+            write.println("</line>");
+        }
+
+        write.println("</patternlist>");
+        write.println("</jml>");
+        for (int i = 0; i < JMLDefs.jmlsuffix.length; i++)
+            write.println(JMLDefs.jmlsuffix[i]);
+        write.flush();
+    }
+}
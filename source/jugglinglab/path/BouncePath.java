@@ -603,6 +603,14 @@ public class BouncePath extends Path {
         return numroots;
     }
 
+    // Absolute times of the bounces along the path, in increasing order
+    public double[] getBounceTimes() {
+        double[] result = new double[numbounces];
+        for (int i = 0; i < numbounces; i++)
+            result[i] = start_time + endtime[i];
+        return result;
+    }
+
     // The returned quantity isn't actually used for volume, so just treat it as yes/no
     public double getBounceVolume(double time1, double time2) {
         if ((time2 < start_time) || (time1 > end_time))
@@ -6,8 +6,6 @@ package jugglinglab.util;
 
 import java.awt.GridBagConstraints;
 import java.awt.Insets;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 
 // Some useful functions
@@ -33,8 +31,12 @@ public class JLFunc {
     // be balanced. Otherwise we get ambiguous cases like '(()^5' --> does this
     // expand to '(((((' or '('?
     public static String expandRepeats(String str) {
-        StringBuffer sb = new StringBuffer();
-        addExpansionToBuffer(str, sb);
+        // quick exit for the common case
+        if (str.indexOf('^') == -1)
+            return str;
+
+        StringBuilder sb = new StringBuilder();
+        addExpansionToBuffer(str, 0, str.length(), matchParentheses(str), sb);
         return sb.toString();
 
         /*
@@ -48,12 +50,33 @@ public class JLFunc {
         */
     }
 
-    protected static void addExpansionToBuffer(String str, StringBuffer sb) {
-        for (int pos = 0; pos < str.length(); ) {
+    // For each '(' in the string, find the position of the matching ')', or
+    // -1 if there isn't one. Done in a single pass with a stack.
+    protected static int[] matchParentheses(String str) {
+        int[] match = new int[str.length()];
+        int[] stack = new int[str.length()];
+        int depth = 0;
+
+        for (int pos = 0; pos < str.length(); pos++) {
+            char ch = str.charAt(pos);
+            match[pos] = -1;
+
+            if (ch == '(')
+                stack[depth++] = pos;
+            else if (ch == ')' && depth > 0)
+                match[stack[--depth]] = pos;
+        }
+        return match;
+    }
+
+    // Expand the section of `str` from `start` up to (not including) `end`
+    protected static void addExpansionToBuffer(String str, int start, int end,
+                                               int[] match, StringBuilder sb) {
+        for (int pos = start; pos < end; ) {
             char ch = str.charAt(pos);
 
             if (ch == '(') {
-                int[] result = tryParseRepeat(str, pos);
+                int[] result = tryParseRepeat(str, pos, end, match);
 
                 if (result == null) {
                     // no repeat found, treat like a normal character
@@ -64,11 +87,8 @@ public class JLFunc {
                     int repeats = result[1];
                     int resume_start = result[2];
 
-                    // snip out the string to be repeated:
-                    String str2 = str.substring(pos + 1, repeat_end);
-
                     for (int i = 0; i < repeats; i++)
-                        addExpansionToBuffer(str2, sb);
+                        addExpansionToBuffer(str, pos + 1, repeat_end, match, sb);
 
                     pos = resume_start;
                 }
@@ -79,7 +99,7 @@ public class JLFunc {
         }
     }
 
-    // Scan forward in the string to find:
+    // Find:
     // (1) the end of the repeat (buffer position of ')' where depth returns to 0)
     // (2) the number of repeats
     //     - if the next non-whitespace char after (a) is not '^' -> no repeat
@@ -92,38 +112,39 @@ public class JLFunc {
     //
     // We always call this function with `fromPos` sitting on the '(' that starts
     // the repeat section.
-    protected static int[] tryParseRepeat(String str, int fromPos) {
-        int depth = 0;
+    protected static int[] tryParseRepeat(String str, int fromPos, int end, int[] match) {
+        int repeat_end = match[fromPos];
+        if (repeat_end == -1 || repeat_end >= end)
+            return null;
+
+        // see if we match the form '^(int)...' after the closing parenthesis
+        int pos = skipWhitespace(str, repeat_end + 1);
+        if (pos == str.length() || str.charAt(pos) != '^')
+            return null;
+        pos = skipWhitespace(str, pos + 1);
+
+        int digits_start = pos;
+        while (pos < str.length() && str.charAt(pos) >= '0' && str.charAt(pos) <= '9')
+            pos++;
+        if (pos == digits_start)
+            return null;
+
+        int[] result = new int[3];
+        result[0] = repeat_end;
+        result[1] = Integer.parseInt(str.substring(digits_start, pos));
+        result[2] = pos;
+        return result;
+    }
 
-        for (int pos = fromPos; pos < str.length(); pos++) {
+    protected static int skipWhitespace(String str, int pos) {
+        while (pos < str.length()) {
             char ch = str.charAt(pos);
-
-            if (ch == '(')
-                depth++;
-            else if (ch == ')') {
-                depth--;
-                if (depth == 0) {
-                    // see if we match the form '^(int)...' after the closing
-                    // parenthesis
-                    Pattern pat = Pattern.compile("^\\s*\\^\\s*(\\d+).*");
-                    Matcher m = pat.matcher(str.substring(pos + 1, str.length()));
-
-                    if (!m.matches())
-                        return null;
-
-                    int repeat_end = pos;
-                    int repeats = Integer.parseInt(m.group(1));
-                    int resume_start = m.end(1) + pos + 1;
-
-                    int[] result = new int[3];
-                    result[0] = repeat_end;
-                    result[1] = repeats;
-                    result[2] = resume_start;
-                    return result;
-                }
-            }
+            if (ch != ' ' && ch != '\t' && ch != '\n' && ch != '\u000B' &&
+                        ch != '\f' && ch != '\r')
+                break;
+            pos++;
         }
-        return null;
+        return pos;
     }
 
     // convert a double value to a String, with trailing '.' and '0's suppressed
@@ -4,13 +4,24 @@
 
 package jugglinglab.util;
 
+import java.lang.ref.WeakReference;
 import java.util.*;
 
 
+// Permutations are immutable, so the cycle structure, order, and inverse are
+// computed on first use and then cached.
+
 public class Permutation {
-    protected int       size;
-    protected int[]     mapping;
-    protected boolean   reverses;
+    protected final int       size;
+    protected final int[]     mapping;
+    protected final boolean   reverses;
+
+    protected CycleData cycledata;
+    protected Permutation inverse;
+
+    // interned instances, see intern()
+    protected static final WeakHashMap<Permutation, WeakReference<Permutation>> interned =
+                new WeakHashMap<Permutation, WeakReference<Permutation>>();
 
 
     public Permutation(int n, boolean reverses) {   // identity permutation
@@ -30,6 +41,7 @@ public class Permutation {
         }
     }
 
+    // Note `mapping` is not copied, so the caller must not change it afterward
     public Permutation(int n, int[] mapping, boolean reverses) {
         this.size = n;
         this.reverses = reverses;
@@ -261,6 +273,8 @@ public class Permutation {
     public boolean hasReverses()    { return reverses; }
 
     public boolean equals(Permutation p) {
+        if (p == this)
+            return true;
         if (p == null)
             return false;
         if (reverses != p.hasReverses())
@@ -273,6 +287,33 @@ public class Permutation {
         return true;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        return (o instanceof Permutation) && equals((Permutation)o);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = (reverses ? 1 : 0);
+        for (int i = 0; i < getSize(); i++)
+            h = 31 * h + getMapping(i+1);
+        return h;
+    }
+
+    // Return a canonical instance equal to `p`, so that equal permutations
+    // can share storage and cached data.
+    public static Permutation intern(Permutation p) {
+        synchronized (interned) {
+            WeakReference<Permutation> ref = interned.get(p);
+            Permutation result = (ref == null ? null : ref.get());
+            if (result == null) {
+                interned.put(p, new WeakReference<Permutation>(p));
+                result = p;
+            }
+            return result;
+        }
+    }
+
     public int getMapping(int elem) {
         if (reverses)
             return mapping[elem+size];
@@ -281,6 +322,16 @@ public class Permutation {
     }
 
     public int getMapping(int elem, int power) {
+        CycleData cd = getCycleData();
+        int index = (reverses ? elem+size : elem-1);
+        int c = cd.cyclenum[index];
+
+        if (c >= 0) {
+            int[] cycle = cd.cycles[c];
+            return cycle[(int)Math.floorMod((long)cd.cyclepos[index] + power, (long)cycle.length)];
+        }
+
+        // element isn't on a cycle (only possible with reverses)
         if (power > 0) {
             for (int i = 0; i < power; i++)
                 elem = getMapping(elem);
@@ -305,20 +356,20 @@ public class Permutation {
     }
 
     public int getInverseMapping(int elem) {
-        if (reverses) {
-            for (int i = 0; i < (2*size+1); i++)
-                if (mapping[i] == elem)
-                    return (i-size);
-        } else {
-            for (int i = 0; i < size; i++) {
-                if (mapping[i] == elem)
-                    return (i+1);
-            }
-        }
+        if (!reverses)
+            return getInverse().getMapping(elem);
+
+        for (int i = 0; i < (2*size+1); i++)
+            if (mapping[i] == elem)
+                return (i-size);
         return 0;
     }
 
     public Permutation getInverse() {
+        Permutation inv = inverse;
+        if (inv != null)
+            return inv;
+
         int[] invmapping = null;
 
         if (reverses) {
@@ -333,7 +384,11 @@ public class Permutation {
                 invmapping[mapping[i]-1] = i+1;
         }
 
-        return new Permutation(size, invmapping, reverses);
+        inv = new Permutation(size, invmapping, reverses);
+        if (!reverses)
+            inv.inverse = this;
+        inverse = inv;
+        return inv;
     }
 
 
@@ -350,39 +405,135 @@ public class Permutation {
         return (x0*y0)/g;
     }
 
+    // Order of the permutation. Saturates at Integer.MAX_VALUE if the true
+    // order is larger than that.
     public int getOrder() {
-        int ord = 1;
-
-        for (int elem = 1; elem <= size; elem++)
-            if (getMapping(elem) != 0)
-                ord = lcm(ord, getOrder(elem));
-
-        return ord;
+        return getCycleData().order;
     }
 
-
     public int getOrder(int elem) {
-        int index;
-        int ord = 1;
+        CycleData cd = getCycleData();
+        int index = (reverses ? elem+size : elem-1);
+        int c = cd.cyclenum[index];
 
-        index = (reverses ? elem+size : elem-1);
+        if (c >= 0)
+            return cd.cycles[c].length;
+
+        int ord = 1;
         while (mapping[index] != elem) {
             ord++;
             index = mapping[index] + (reverses ? size : -1);
         }
-
         return ord;
     }
 
+    // Returns the cycle containing `elem`, starting with `elem`. The caller
+    // is free to modify the returned array.
     public int[] getCycle(int elem) {
-        int ord = getOrder(elem);
-        int[] result = new int[ord];
-        int term = elem;
-
-        for (int i = 0; i < ord; i++) {
-            result[i] = term;
-            term = mapping[(reverses ? term+size : term-1)];
+        CycleData cd = getCycleData();
+        int index = (reverses ? elem+size : elem-1);
+        int c = cd.cyclenum[index];
+
+        if (c < 0) {
+            int ord = getOrder(elem);
+            int[] result = new int[ord];
+            int term = elem;
+
+            for (int i = 0; i < ord; i++) {
+                result[i] = term;
+                term = mapping[(reverses ? term+size : term-1)];
+            }
+            return result;
         }
+
+        int[] cycle = cd.cycles[c];
+        int start = cd.cyclepos[index];
+        int[] result = new int[cycle.length];
+        System.arraycopy(cycle, start, result, 0, cycle.length - start);
+        System.arraycopy(cycle, 0, result, cycle.length - start, start);
         return result;
     }
+
+    // Cycles are numbered from 0 to getNumberOfCycles()-1. Returns -1 for an
+    // element that is not on a cycle (possible only with reverses).
+    public int getCycleNumber(int elem) {
+        return getCycleData().cyclenum[reverses ? elem+size : elem-1];
+    }
+
+    public int getNumberOfCycles() {
+        return getCycleData().cycles.length;
+    }
+
+    protected CycleData getCycleData() {
+        CycleData cd = cycledata;
+        if (cd == null) {
+            cd = new CycleData(this);
+            cycledata = cd;
+        }
+        return cd;
+    }
+
+    // Cycle decomposition of a permutation. All fields are final, so an
+    // instance can be safely shared between threads once constructed.
+    protected static class CycleData {
+        public final int[][] cycles;
+        public final int[] cyclenum;    // indexed like `mapping`
+        public final int[] cyclepos;
+        public final int order;
+
+        public CycleData(Permutation p) {
+            int n = p.mapping.length;
+            int offset = (p.reverses ? p.size : -1);
+            cyclenum = new int[n];
+            cyclepos = new int[n];
+            Arrays.fill(cyclenum, -1);
+
+            ArrayList<int[]> cyc = new ArrayList<int[]>();
+            int[] scratch = new int[n];
+            long ord = 1;
+
+            for (int i = 0; i < n; i++) {
+                if (cyclenum[i] != -1 || (p.reverses && i == p.size))
+                    continue;
+
+                // follow the orbit of element i; it forms a cycle only if it
+                // returns to i without passing through 0
+                int elem = i - offset;
+                int len = 0;
+                int term = elem;
+                do {
+                    if (term == 0 || len == n)
+                        break;
+                    scratch[len++] = term;
+                    term = p.mapping[term+offset];
+                } while (term != elem);
+                if (term != elem)
+                    continue;
+
+                int[] cycle = Arrays.copyOf(scratch, len);
+                for (int j = 0; j < len; j++) {
+                    cyclenum[cycle[j]+offset] = cyc.size();
+                    cyclepos[cycle[j]+offset] = j;
+                }
+                cyc.add(cycle);
+            }
+            cycles = cyc.toArray(new int[cyc.size()][]);
+
+            // order, as in lcm of the cycle lengths over elements 1..size
+            for (int elem = 1; elem <= p.size; elem++) {
+                int index = elem + offset;
+                if (p.mapping[index] == 0 || cyclenum[index] < 0)
+                    continue;
+                long len = cycles[cyclenum[index]].length;
+                long g = ord, b = len;
+                while (b > 0) {
+                    long t = g % b;
+                    g = b;
+                    b = t;
+                }
+                ord = Math.min(ord / g * len, Integer.MAX_VALUE);
+            }
+            order = (int)ord;
+        }
+    }
 }
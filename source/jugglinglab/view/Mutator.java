@@ -10,6 +10,7 @@ import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.Dimension;
 import java.util.Hashtable;
+import java.util.Random;
 import java.util.ResourceBundle;
 import javax.swing.*;
 
@@ -17,8 +18,9 @@ import jugglinglab.jml.*;
 import jugglinglab.util.*;
 
 /* ----------------------------------------------------------------------------
-This class is used by SelectionView to create random variations of a pattern.
-It does this by selecting from the following list of operations:
+This class is used by SelectionView to create random variations of a pattern,
+and by the headless Evolver to breed patterns automatically. It does this by
+selecting from the following list of operations:
 
 small mutations:
 - change position of a randomly-selected event (but keep in-plane)
@@ -61,6 +63,7 @@ public class Mutator {
     // overall scale of adjustment, per mutation
     static final double[] slider_rates = { 0.2, 0.4, 0.7, 1.0, 1.3, 1.6, 2.0 };
     protected double rate;
+    protected Random random;
 
     protected JPanel controls;
     protected JCheckBox[] cb;
@@ -68,16 +71,23 @@ public class Mutator {
 
 
     public Mutator() {
+        this.random = new Random();
         this.controls = makeControlPanel();
     }
 
+    // Mutator with no control panel, which uses all mutation types at the
+    // default rate. Pass in a seeded Random for reproducible results.
+    public Mutator(Random random) {
+        this.random = random;
+    }
+
     // return a mutated version of the input pattern.
     // Important: This should not change the input pattern in any way
     public JMLPattern mutatePattern(JMLPattern pat) throws JuggleExceptionInternal {
         double[] cdf = new double[5];
         double freq_sum = 0.0;
         for (int i = 0; i < 5; i++) {
-            freq_sum += (cb[i].isSelected() ? mutation_freq[i] : 0.0);
+            freq_sum += ((cb == null || cb[i].isSelected()) ? mutation_freq[i] : 0.0);
             cdf[i] = freq_sum;
         }
 
@@ -91,7 +101,7 @@ public class Mutator {
         try {
             do {
                 JMLPattern clone = (JMLPattern)pat.clone();
-                double r = freq_sum * Math.random();
+                double r = freq_sum * random.nextDouble();
                 tries++;
 
                 if (r < cdf[0])
@@ -134,24 +144,12 @@ public class Mutator {
                     JuggleExceptionUser, JuggleExceptionInternal {
         JMLEvent ev = pickMasterEvent(pat);
 
-        JMLEvent ev_prev = ev.getPrevious();
-        while (ev_prev != null) {
-            if (ev_prev.getJuggler() == ev.getJuggler() &&
-                        ev_prev.getHand() == ev.getHand())
-                break;
-            ev_prev = ev_prev.getPrevious();
-        }
+        JMLEvent ev_prev = pat.getPreviousEventForHand(ev);
         double tmin = (ev_prev == null ? pat.getLoopStartTime() :
                        Math.max(pat.getLoopStartTime(), ev_prev.getT()) +
                        mutationMinEventDeltaSec);
 
-        JMLEvent ev_next = ev.getNext();
-        while (ev_next != null) {
-            if (ev_next.getJuggler() == ev.getJuggler() &&
-                        ev_next.getHand() == ev.getHand())
-                break;
-            ev_next = ev_next.getNext();
-        }
+        JMLEvent ev_next = pat.getNextEventForHand(ev);
         double tmax = (ev_next == null ? pat.getLoopEndTime() :
                        Math.min(pat.getLoopEndTime(), ev_next.getT()) -
                        mutationMinEventDeltaSec);
@@ -161,7 +159,7 @@ public class Mutator {
 
         // Sample t from two one-sided triangular distributions: Event time has
         // equal probability of going down or up.
-        double r = Math.random();
+        double r = random.nextDouble();
         double tnow = ev.getT();
         double t = 0.0;
         if (r < 0.5)
@@ -179,7 +177,7 @@ public class Mutator {
                     JuggleExceptionUser, JuggleExceptionInternal {
         // sample new scale from two one-sided triangular distributions: Scale has
         // equal probability of going up or down
-        double r = Math.random();
+        double r = random.nextDouble();
         double scalemin = 1.0 / (1.0 + rate * mutationTimingScale);
         double scalemax = 1.0 + rate * mutationTimingScale;
         double scale = 0.0;
@@ -224,8 +222,8 @@ public class Mutator {
         int tries = 0;
 
         do {
-            juggler = 1 + (int)(pat.getNumberOfJugglers() * Math.random());
-            hand = Math.random() < 0.5 ? HandLink.LEFT_HAND : HandLink.RIGHT_HAND;
+            juggler = 1 + (int)(pat.getNumberOfJugglers() * random.nextDouble());
+            hand = random.nextDouble() < 0.5 ? HandLink.LEFT_HAND : HandLink.RIGHT_HAND;
 
             // Choose the time at which to add the event. We want to bias the
             // selection so that we tend to pick times not too close to other
@@ -233,7 +231,7 @@ public class Mutator {
             // pick from a triangular distribution.
             tmin = pat.getLoopStartTime();
             tmax = pat.getLoopEndTime();
-            t = tmin + (tmax - tmin) * Math.random();
+            t = tmin + (tmax - tmin) * random.nextDouble();
 
             ev = pat.getEventList();
             while (ev != null) {
@@ -260,7 +258,7 @@ public class Mutator {
         if (tries == 5)
             return null;
 
-        double r = Math.random();
+        double r = random.nextDouble();
         if (r < 0.5)
             t = tmin + (tmax - tmin) * Math.sqrt(0.5 * r);
         else
@@ -328,7 +326,7 @@ public class Mutator {
             return null;
 
         // pick one to remove, then go back through event list and find it
-        count = (int)(count * Math.random());
+        count = (int)(count * random.nextDouble());
 
         ev = pat.getEventList();
 
@@ -377,7 +375,7 @@ public class Mutator {
         } while (current != null);
 
         // pick a number from 0 to (master_count - 1) inclusive
-        int event_num = (int)(Math.random() * master_count);
+        int event_num = (int)(random.nextDouble() * master_count);
 
         current = eventlist;
         do {
@@ -411,8 +409,8 @@ public class Mutator {
         do {
             result = new Coordinate(pos);
             // leave y component unchanged to maintain plane of juggling
-            result.x += 2.0 * scaleDistance * (Math.random() - 0.5);
-            result.z += 2.0 * scaleDistance * (Math.random() - 0.5);
+            result.x += 2.0 * scaleDistance * (random.nextDouble() - 0.5);
+            result.z += 2.0 * scaleDistance * (random.nextDouble() - 0.5);
 
             if (hand == HandLink.LEFT_HAND)
                 outside_box = (result.x < -75 || result.x > 40 ||
@@ -420,7 +418,7 @@ public class Mutator {
             else
                 outside_box = (result.x < -40 || result.x > 75 ||
                                result.z < -20 || result.z > 80);
-        } while (outside_box && Math.random() < 0.5);
+        } while (outside_box && random.nextDouble() < 0.5);
 
         return result;
     }
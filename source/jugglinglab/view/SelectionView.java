@@ -22,6 +22,7 @@ public class SelectionView extends View {
     protected AnimationPanel[] ja;
     protected JLayeredPane layered;
     protected Mutator mutator;
+    protected AnimationClock clock;
 
 
     public SelectionView(Dimension dim) {
@@ -31,7 +32,13 @@ public class SelectionView extends View {
 
         // JLayeredPane on the left so we can show a grid of animations with
         // an overlay drawn on top
-        this.layered = makeLayeredPane(dim, makeAnimationGrid(), makeOverlay());
+        JPanel grid = makeAnimationGrid();
+        this.layered = makeLayeredPane(dim, grid, makeOverlay());
+
+        // drive all the animations from one thread, repainting them together
+        this.clock = new AnimationClock(grid);
+        for (int i = 0; i < count; i++)
+            clock.addPanel(ja[i]);
         this.mutator = new Mutator();
 
         GridBagLayout gb = new GridBagLayout();
@@ -239,6 +246,7 @@ public class SelectionView extends View {
 
     @Override
     public void disposeView() {
+        clock.stop();
         for (int i = 0; i < count; i++)
             ja[i].disposeAnimation();
     }